@@ -0,0 +1,234 @@
+/*
+ * Copyright 2024 Andrew Gunnerson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tmovvm;
+
+import android.annotation.NonNull;
+import android.net.LocalServerSocket;
+import android.net.LocalSocket;
+import android.os.Process;
+
+import com.android.tmovvm.Main.ArgValidationException;
+import com.android.tmovvm.Main.Options;
+import com.android.voicemail.impl.mstore.MStoreClient;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+/**
+ * Runs commands in a long-lived process for {@code tmovvm serve}, so that the startup cost of
+ * app_process, the system service lookups, and JIT warmup is only paid once. The same
+ * {@link MStoreClient} is used for every command, so cached digest auth challenges are reused too.
+ *
+ * Commands are read one per line, either from stdin or from connections to a Unix domain socket in
+ * the abstract namespace. Abstract sockets have no filesystem permissions, so any app could
+ * connect. Connections are only accepted from root, the shell user, and the user that started the
+ * server, as reported by the peer credentials. Each line is split into arguments like a shell
+ * would and is run as if the arguments were passed to tmovvm, including global options, which only
+ * apply to that line, except for those that configure the shared client.
+ * After a command's output, a status line is written: {@code >>> ok} on success or
+ * {@code >>> error <exit code> <message>} on failure. A line containing {@code quit} closes the
+ * connection.
+ */
+class CommandServer {
+    private static final String STATUS_PREFIX = ">>> ";
+
+    private final @NonNull Options options;
+    private final @NonNull MStoreClient client;
+
+    CommandServer(@NonNull Options options, @NonNull MStoreClient client) {
+        this.options = options;
+        this.client = client;
+    }
+
+    /**
+     * Serve commands until stdin is closed or, in socket mode, forever.
+     *
+     * @param args The arguments of the serve command itself.
+     */
+    void serve(@NonNull String[] args) throws Exception {
+        if (args.length == 1) {
+            handle(System.in, System.out);
+        } else if (args.length == 3 && "--socket".equals(args[1])) {
+            listen(args[2]);
+        } else {
+            throw new ArgValidationException("Expected: serve [--socket <NAME>]");
+        }
+    }
+
+    /**
+     * Accept connections on a Unix domain socket in the abstract namespace. Each connection is
+     * handled on its own thread, so commands from different connections run concurrently.
+     */
+    private void listen(@NonNull String name) throws IOException {
+        try (final var server = new LocalServerSocket(name)) {
+            System.err.println("Listening on @" + name);
+
+            while (true) {
+                final var socket = server.accept();
+                final var thread = new Thread(() -> handleConnection(socket), "tmovvm-serve");
+                thread.setDaemon(true);
+                thread.start();
+            }
+        }
+    }
+
+    /**
+     * Whether a peer with the specified UID may run commands.
+     */
+    private static boolean isAllowedUid(int uid) {
+        return uid == Process.ROOT_UID || uid == Process.SHELL_UID || uid == Process.myUid();
+    }
+
+    private void handleConnection(@NonNull LocalSocket socket) {
+        try (socket) {
+            final var credentials = socket.getPeerCredentials();
+            if (!isAllowedUid(credentials.getUid())) {
+                System.err.println("Rejected connection from UID " + credentials.getUid()
+                        + " (PID " + credentials.getPid() + ")");
+                return;
+            }
+
+            handle(socket.getInputStream(), new PrintStream(socket.getOutputStream(), false,
+                    StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            System.err.println("Connection failed: " + e);
+        }
+    }
+
+    /**
+     * Run commands from a line-delimited stream until it is closed or {@code quit} is received.
+     */
+    private void handle(@NonNull InputStream input, @NonNull PrintStream output)
+            throws IOException {
+        final var reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8));
+        String line;
+
+        while ((line = reader.readLine()) != null) {
+            try {
+                final var args = splitArgs(line);
+                if (args.length == 0) {
+                    continue;
+                } else if (args.length == 1 && "quit".equals(args[0])) {
+                    printStatus(output, "ok");
+                    break;
+                }
+
+                run(args, output);
+            } catch (ArgValidationException e) {
+                printStatus(output, "error 2 " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Run a single command and write its status line.
+     */
+    private void run(@NonNull String[] rawArgs, @NonNull PrintStream output) {
+        try {
+            final var lineOptions = options.copy();
+            final var args = Main.parseOptions(rawArgs, lineOptions);
+
+            if (!lineOptions.transport.equals(options.transport)) {
+                throw new ArgValidationException("Transport cannot be changed while serving");
+            } else if (lineOptions.timings != options.timings) {
+                throw new ArgValidationException("Timings cannot be changed while serving");
+            } else if (args.length > 0 && "serve".equals(args[0])) {
+                throw new ArgValidationException("Already serving");
+            }
+
+            if (!Main.runOfflineCommand(args, output)) {
+                Main.runCommand(args, lineOptions, client, output);
+            }
+
+            printStatus(output, "ok");
+        } catch (ArgValidationException e) {
+            printStatus(output, "error 2 " + e.getMessage());
+        } catch (Exception e) {
+            //noinspection CallToPrintStackTrace
+            e.printStackTrace();
+            printStatus(output, "error 1 " + e);
+        }
+    }
+
+    private static void printStatus(@NonNull PrintStream output, @NonNull String status) {
+        // The status must fit on one line so that clients can find the end of the output.
+        output.println(STATUS_PREFIX + status.replace('\n', ' '));
+        output.flush();
+    }
+
+    /**
+     * Split a command line into arguments. Arguments are separated by whitespace. Single quotes
+     * preserve everything literally, while double quotes and unquoted text allow a backslash to
+     * escape the next character.
+     */
+    static @NonNull String[] splitArgs(@NonNull String line) throws ArgValidationException {
+        final var args = new ArrayList<String>();
+        final var current = new StringBuilder();
+        var inArg = false;
+        var quote = '\0';
+
+        for (var i = 0; i < line.length(); i++) {
+            final var c = line.charAt(i);
+
+            if (quote == '\'') {
+                if (c == '\'') {
+                    quote = '\0';
+                } else {
+                    current.append(c);
+                }
+            } else if (c == '\\') {
+                if (++i == line.length()) {
+                    throw new ArgValidationException("Trailing backslash: " + line);
+                }
+                current.append(line.charAt(i));
+                inArg = true;
+            } else if (quote == '"') {
+                if (c == '"') {
+                    quote = '\0';
+                } else {
+                    current.append(c);
+                }
+            } else if (c == '\'' || c == '"') {
+                quote = c;
+                inArg = true;
+            } else if (Character.isWhitespace(c)) {
+                if (inArg) {
+                    args.add(current.toString());
+                    current.setLength(0);
+                    inArg = false;
+                }
+            } else {
+                current.append(c);
+                inArg = true;
+            }
+        }
+
+        if (quote != '\0') {
+            throw new ArgValidationException("Unterminated quote: " + line);
+        }
+        if (inArg) {
+            args.add(current.toString());
+        }
+
+        return args.toArray(new String[0]);
+    }
+}
@@ -0,0 +1,720 @@
+/*
+ * Copyright 2024 Andrew Gunnerson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tmovvm;
+
+import android.annotation.NonNull;
+import android.annotation.Nullable;
+
+import com.android.tmovvm.Main.ArgValidationException;
+import com.android.tmovvm.Main.Options;
+import com.android.voicemail.impl.mstore.MStoreCacheOptions;
+import com.android.voicemail.impl.mstore.MStoreClient;
+import com.android.voicemail.impl.mstore.MStoreException;
+import com.android.voicemail.impl.mstore.MStoreListOptions;
+import com.android.voicemail.impl.mstore.MStoreObject;
+import com.android.voicemail.impl.mstore.MStorePayloadCache;
+import com.android.voicemail.impl.mstore.MStoreProfile;
+import com.android.voicemail.impl.mstore.MStoreQuota;
+import com.android.voicemail.impl.mstore.SingleFlight;
+import com.android.voicemail.impl.mstore.UncheckedMStoreException;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+/**
+ * A minimal HTTP/1.0 server for {@code tmovvm gateway} that exposes the mstore API to other
+ * processes on the device as plain JSON, without them having to perform GBA or digest auth. All
+ * requests are made with a single {@link MStoreClient}, so cached digest auth challenges are shared
+ * by every consumer.
+ *
+ * The server only listens on the loopback interface and only supports {@code GET} and
+ * {@code HEAD}. Each connection handles a single request. The available endpoints are:
+ *
+ * <ul>
+ *     <li>{@code /profile}</li>
+ *     <li>{@code /folders/<FOLDER>/quota}</li>
+ *     <li>{@code /folders/<FOLDER>/objects[?limit=<N>]}</li>
+ *     <li>{@code /objects/<ID>}</li>
+ *     <li>{@code /objects/<ID>/payload}</li>
+ * </ul>
+ *
+ * where {@code FOLDER} is {@code voicemail}, {@code greeting}, or a folder UUID. Path segments are
+ * validated before they are used to build upstream URLs, so that encoded slashes or dot segments
+ * cannot reach other mstore resources.
+ *
+ * Any app on the device can connect to the loopback interface, so every request must include a
+ * bearer token. If none is specified, a random one is generated and printed at startup.
+ *
+ * Identical requests that arrive while one is already in progress share its result instead of
+ * each sending their own request to the server. Successful JSON responses are additionally cached
+ * for a short time. The profile and quotas are cached by the client instead, which also serves
+ * them stale for up to the same amount of time while refreshing them in the background. Payloads
+ * are streamed to the connection as they are downloaded, so they are neither shared nor buffered
+ * in memory, but are served from the payload cache if {@code --cache-dir} is set. A {@code HEAD}
+ * request for a payload only fetches the object's metadata.
+ */
+class HttpGateway {
+    /** Default port to listen on. */
+    static final int DEFAULT_PORT = 8465;
+
+    /** Default time in seconds that JSON responses are cached for. */
+    static final int DEFAULT_CACHE_TTL = 10;
+
+    /** Maximum number of connections handled concurrently. */
+    private static final int MAX_CONNECTIONS = 16;
+
+    /** Maximum size of the request line and headers. */
+    private static final int MAX_HEADER_SIZE = 8192;
+
+    /** Read timeout for incoming requests. */
+    private static final int READ_TIMEOUT_MS = 10_000;
+
+    /** Size of randomly generated tokens in bytes. */
+    private static final int TOKEN_SIZE = 32;
+
+    private static final String CONTENT_TYPE_JSON = "application/json; charset=utf-8";
+
+    /** Folder IDs are UUIDs. */
+    private static final Pattern RE_FOLDER_ID = Pattern.compile(
+            "^[0-9a-fA-F]{8}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{12}$");
+
+    /**
+     * Characters allowed in object paths. This excludes everything that has a meaning in the
+     * upstream URL, like {@code /}, {@code ?}, {@code &}, {@code #}, and {@code %}.
+     */
+    private static final Pattern RE_OBJECT_PATH = Pattern.compile("^[A-Za-z0-9._~:@+=-]+$");
+
+    /**
+     * A body that is written directly to the connection instead of being buffered.
+     */
+    private interface StreamingBody {
+        void writeTo(@NonNull OutputStream output) throws MStoreException, IOException;
+    }
+
+    /**
+     * A response. JSON responses are fully buffered in {@code body} so that they can be shared by
+     * coalesced requests. Payloads are produced by {@code stream} instead, which is only called
+     * for {@code GET} requests.
+     *
+     * @param contentLength Length of the body or -1 if unknown.
+     */
+    private record Response(int code, @NonNull String contentType, long contentLength,
+            @Nullable byte[] body, @Nullable StreamingBody stream) {
+        static @NonNull Response buffered(int code, @NonNull String contentType,
+                @NonNull byte[] body) {
+            return new Response(code, contentType, body.length, body, null);
+        }
+
+        static @NonNull Response json(@NonNull JSONObject data) {
+            return buffered(200, CONTENT_TYPE_JSON,
+                    data.toString().getBytes(StandardCharsets.UTF_8));
+        }
+
+        static @NonNull Response error(int code, @NonNull String message) {
+            try {
+                final var data = new JSONObject().put("error", message);
+                return buffered(code, CONTENT_TYPE_JSON,
+                        data.toString().getBytes(StandardCharsets.UTF_8));
+            } catch (JSONException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    /**
+     * A cached JSON response.
+     */
+    private record CacheEntry(@NonNull Response response, long expiryNanos) {}
+
+    /**
+     * Produces the response for a route.
+     */
+    private interface Handler {
+        @NonNull
+        Response handle() throws MStoreException, IOException, JSONException;
+    }
+
+    private final @NonNull Options options;
+    private final @NonNull MStoreClient client;
+    private @Nullable MStorePayloadCache payloadCache;
+    private @Nullable byte[] token;
+    private long cacheTtlNanos = DEFAULT_CACHE_TTL * 1_000_000_000L;
+    private final @NonNull ConcurrentHashMap<String, CacheEntry> cache = new ConcurrentHashMap<>();
+    private final @NonNull SingleFlight<String, Response> flights = new SingleFlight<>();
+
+    HttpGateway(@NonNull Options options, @NonNull MStoreClient client) {
+        this.options = options;
+        this.client = client;
+    }
+
+    /**
+     * Serve requests forever.
+     *
+     * @param args The arguments of the gateway command itself.
+     */
+    void serve(@NonNull String[] args) throws Exception {
+        var port = DEFAULT_PORT;
+
+        for (var i = 1; i < args.length; i++) {
+            if (i + 1 == args.length) {
+                throw new ArgValidationException("Missing value for " + args[i]);
+            }
+
+            switch (args[i]) {
+                case "--port" -> port = parsePort(args[++i]);
+                case "--token" -> token = parseToken(args[++i]);
+                case "--cache-ttl" -> cacheTtlNanos = parseTtl(args[++i]) * 1_000_000_000L;
+                default -> throw new ArgValidationException("Unknown gateway option: " + args[i]);
+            }
+        }
+
+        // The client caches the profile and quotas itself, so that they are invalidated when
+        // they change. Stale entries are served while they are refreshed in the background.
+        final var cacheOptions = new MStoreCacheOptions();
+        cacheOptions.profileTtlMs = TimeUnit.NANOSECONDS.toMillis(cacheTtlNanos);
+        cacheOptions.quotaTtlMs = cacheOptions.profileTtlMs;
+        cacheOptions.maxStaleMs = cacheOptions.profileTtlMs;
+        client.setCacheOptions(cacheOptions);
+
+        if (options.cacheDir != null) {
+            payloadCache = new MStorePayloadCache(new File(options.cacheDir),
+                    Main.PAYLOAD_CACHE_SIZE);
+        }
+
+        if (token == null) {
+            final var data = new byte[TOKEN_SIZE];
+            new SecureRandom().nextBytes(data);
+
+            final var generated = HexFormat.of().formatHex(data);
+            token = generated.getBytes(StandardCharsets.UTF_8);
+            System.err.println("Generated token: " + generated);
+        }
+
+        listen(port);
+    }
+
+    private static int parsePort(@NonNull String value) throws ArgValidationException {
+        try {
+            final var port = Integer.parseInt(value);
+            if (port >= 0 && port <= 65535) {
+                return port;
+            }
+        } catch (NumberFormatException e) {
+            // Fall through.
+        }
+
+        throw new ArgValidationException("Invalid port: " + value);
+    }
+
+    private static @NonNull byte[] parseToken(@NonNull String value)
+            throws ArgValidationException {
+        if (value.isEmpty()) {
+            throw new ArgValidationException("Token must not be empty");
+        }
+
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static long parseTtl(@NonNull String value) throws ArgValidationException {
+        try {
+            final var ttl = Long.parseLong(value);
+            if (ttl >= 0) {
+                return ttl;
+            }
+        } catch (NumberFormatException e) {
+            // Fall through.
+        }
+
+        throw new ArgValidationException("Invalid cache TTL: " + value);
+    }
+
+    /**
+     * Accept connections on the loopback interface. Connections are handled by a bounded pool of
+     * threads, so that a burst of clients cannot create an unbounded number of threads.
+     */
+    private void listen(int port) throws IOException {
+        final var counter = new AtomicInteger(0);
+        final ExecutorService executor = Executors.newFixedThreadPool(MAX_CONNECTIONS, r -> {
+            final var thread = new Thread(r, "tmovvm-gateway-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        try (final var server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress())) {
+            System.err.println("Listening on http://127.0.0.1:" + server.getLocalPort());
+
+            while (true) {
+                final var socket = server.accept();
+                executor.execute(() -> handleConnection(socket));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void handleConnection(@NonNull Socket socket) {
+        try (socket) {
+            socket.setSoTimeout(READ_TIMEOUT_MS);
+
+            final var input = new BufferedInputStream(socket.getInputStream());
+            final var output = socket.getOutputStream();
+            final var requestLine = readLine(input);
+            if (requestLine == null) {
+                return;
+            }
+
+            final var headers = readHeaders(input);
+            final var parts = requestLine.split(" ");
+            if (parts.length != 3 || !parts[2].startsWith("HTTP/")) {
+                writeResponse(output, Response.error(400, "Malformed request line"), true);
+                return;
+            }
+
+            final var method = parts[0];
+            final var isHead = "HEAD".equals(method);
+            if (!isHead && !"GET".equals(method)) {
+                writeResponse(output, Response.error(405, "Method not allowed: " + method),
+                        false);
+            } else if (!isAuthorized(headers.get("authorization"))) {
+                writeResponse(output, Response.error(401, "Missing or invalid token"), isHead);
+            } else {
+                writeResponse(output, route(parts[1]), isHead);
+            }
+        } catch (HeaderTooLargeException e) {
+            System.err.println("Rejected request: " + e.getMessage());
+        } catch (MStoreException | IOException e) {
+            // If this happened while streaming a payload, the response is truncated. Closing the
+            // connection before Content-Length bytes were sent tells the client as much.
+            System.err.println("Connection failed: " + e);
+        }
+    }
+
+    private static class HeaderTooLargeException extends IOException {
+        HeaderTooLargeException() {
+            super("Request header too large");
+        }
+    }
+
+    /**
+     * Read a CRLF or LF terminated line as ISO-8859-1.
+     *
+     * @return The line without the terminator or null if the stream ended before any data.
+     */
+    private static @Nullable String readLine(@NonNull InputStream input) throws IOException {
+        final var buf = new ByteArrayOutputStream();
+
+        while (true) {
+            final var c = input.read();
+            if (c == -1) {
+                if (buf.size() == 0) {
+                    return null;
+                }
+                break;
+            } else if (c == '\n') {
+                break;
+            } else if (buf.size() == MAX_HEADER_SIZE) {
+                throw new HeaderTooLargeException();
+            }
+
+            buf.write(c);
+        }
+
+        var line = buf.toString(StandardCharsets.ISO_8859_1);
+        if (line.endsWith("\r")) {
+            line = line.substring(0, line.length() - 1);
+        }
+
+        return line;
+    }
+
+    /**
+     * Read the request headers. Header names are converted to lowercase.
+     */
+    private static @NonNull HashMap<String, String> readHeaders(@NonNull InputStream input)
+            throws IOException {
+        final var headers = new HashMap<String, String>();
+        var total = 0;
+        String line;
+
+        while ((line = readLine(input)) != null && !line.isEmpty()) {
+            total += line.length();
+            if (total > MAX_HEADER_SIZE) {
+                throw new HeaderTooLargeException();
+            }
+
+            final var colon = line.indexOf(':');
+            if (colon > 0) {
+                headers.put(line.substring(0, colon).trim().toLowerCase(),
+                        line.substring(colon + 1).trim());
+            }
+        }
+
+        return headers;
+    }
+
+    /**
+     * Check the bearer token. Any app on the device can connect to the loopback interface, so the
+     * token is the only thing that restricts access. It is compared in constant time.
+     */
+    private boolean isAuthorized(@Nullable String authorization) {
+        if (token == null || authorization == null || !authorization.startsWith("Bearer ")) {
+            return false;
+        }
+
+        final var provided = authorization.substring(7).getBytes(StandardCharsets.UTF_8);
+        return MessageDigest.isEqual(token, provided);
+    }
+
+    private static void writeResponse(@NonNull OutputStream output, @NonNull Response response,
+            boolean isHead) throws MStoreException, IOException {
+        final var header = new StringBuilder()
+                .append("HTTP/1.0 ").append(response.code()).append(' ')
+                .append(getReason(response.code()))
+                .append("\r\nContent-Type: ").append(response.contentType());
+        if (response.contentLength() >= 0) {
+            header.append("\r\nContent-Length: ").append(response.contentLength());
+        }
+        header.append("\r\nCache-Control: no-store")
+                .append("\r\nConnection: close\r\n\r\n");
+
+        output.write(header.toString().getBytes(StandardCharsets.ISO_8859_1));
+        if (!isHead) {
+            if (response.body() != null) {
+                output.write(response.body());
+            } else if (response.stream() != null) {
+                response.stream().writeTo(output);
+            }
+        }
+        output.flush();
+    }
+
+    private static @NonNull String getReason(int code) {
+        return switch (code) {
+            case 200 -> "OK";
+            case 400 -> "Bad Request";
+            case 401 -> "Unauthorized";
+            case 404 -> "Not Found";
+            case 405 -> "Method Not Allowed";
+            case 502 -> "Bad Gateway";
+            default -> "Error";
+        };
+    }
+
+    /**
+     * Produce the response for a request target.
+     */
+    private @NonNull Response route(@NonNull String target) {
+        final var queryIndex = target.indexOf('?');
+        final var path = queryIndex >= 0 ? target.substring(0, queryIndex) : target;
+        final var query = queryIndex >= 0 ? target.substring(queryIndex + 1) : "";
+        final var segments = path.replaceAll("^/+|/+$", "").split("/+");
+        for (var i = 0; i < segments.length; i++) {
+            try {
+                segments[i] = decodeSegment(segments[i]);
+            } catch (IllegalArgumentException e) {
+                return Response.error(400, e.getMessage());
+            }
+        }
+
+        if (segments.length == 1 && "profile".equals(segments[0])) {
+            return coalesced("profile",
+                    () -> Response.json(profileToJson(client.getProfile())));
+        } else if (segments.length == 3 && "folders".equals(segments[0])) {
+            final var folder = getFolder(segments[1]);
+            if (folder == null) {
+                return Response.error(400, "Invalid folder: " + segments[1]);
+            }
+
+            if ("quota".equals(segments[2])) {
+                return coalesced("quota:" + folder,
+                        () -> Response.json(quotaToJson(client.getQuota(folder))));
+            } else if ("objects".equals(segments[2])) {
+                final long limit;
+                try {
+                    limit = parseLimit(query);
+                } catch (IllegalArgumentException e) {
+                    return Response.error(400, e.getMessage());
+                }
+
+                return cached("objects:" + folder + ":" + limit,
+                        () -> Response.json(listObjects(folder, limit)));
+            }
+        } else if (segments.length == 2 && "objects".equals(segments[0])) {
+            final var objectPath = segments[1];
+            if (!isValidObjectPath(objectPath)) {
+                return Response.error(400, "Invalid object ID: " + objectPath);
+            }
+
+            return cached("object:" + objectPath,
+                    () -> Response.json(objectToJson(client.getObject(objectPath))));
+        } else if (segments.length == 3 && "objects".equals(segments[0])
+                && "payload".equals(segments[2])) {
+            final var objectPath = segments[1];
+            if (!isValidObjectPath(objectPath)) {
+                return Response.error(400, "Invalid object ID: " + objectPath);
+            }
+
+            return handle("payload:" + objectPath, () -> streamPayload(objectPath));
+        }
+
+        return Response.error(404, "Not found: " + path);
+    }
+
+    /**
+     * Get the folder ID for a folder name or UUID or null if it is invalid.
+     */
+    private static @Nullable String getFolder(@NonNull String name) {
+        return switch (name) {
+            case "voicemail" -> MStoreClient.FOLDER_VOICEMAILS;
+            case "greeting" -> MStoreClient.FOLDER_GREETINGS;
+            default -> RE_FOLDER_ID.matcher(name).matches() ? name : null;
+        };
+    }
+
+    /**
+     * Percent-decode a path segment. Unlike form decoding, {@code +} is left as is.
+     *
+     * @throws IllegalArgumentException if the segment contains an invalid escape sequence
+     */
+    private static @NonNull String decodeSegment(@NonNull String segment) {
+        final var bytes = new ByteArrayOutputStream(segment.length());
+
+        for (var i = 0; i < segment.length(); i++) {
+            final var c = segment.charAt(i);
+
+            if (c != '%') {
+                // The request line was read as ISO-8859-1, so each char is one raw byte.
+                bytes.write(c);
+                continue;
+            }
+
+            final var hi = i + 2 < segment.length()
+                    ? Character.digit(segment.charAt(i + 1), 16) : -1;
+            final var lo = hi >= 0 ? Character.digit(segment.charAt(i + 2), 16) : -1;
+            if (lo < 0) {
+                throw new IllegalArgumentException("Invalid escape sequence in path: " + segment);
+            }
+
+            bytes.write(hi << 4 | lo);
+            i += 2;
+        }
+
+        return bytes.toString(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Whether a decoded object path is a single, plain path segment.
+     */
+    private static boolean isValidObjectPath(@NonNull String objectPath) {
+        return RE_OBJECT_PATH.matcher(objectPath).matches() && !objectPath.contains("..");
+    }
+
+    private static long parseLimit(@NonNull String query) {
+        for (var param : query.split("&")) {
+            if (param.startsWith("limit=")) {
+                try {
+                    final var limit = Long.parseLong(param.substring(6));
+                    if (limit > 0) {
+                        return limit;
+                    }
+                } catch (NumberFormatException e) {
+                    // Fall through.
+                }
+
+                throw new IllegalArgumentException("Invalid limit: " + param.substring(6));
+            }
+        }
+
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * Return a cached response if it has not expired. Otherwise, produce a new one, coalescing
+     * concurrent requests, and cache it if it was successful.
+     */
+    private @NonNull Response cached(@NonNull String key, @NonNull Handler handler) {
+        final var entry = cache.get(key);
+        if (entry != null && entry.expiryNanos() - System.nanoTime() > 0) {
+            return entry.response();
+        }
+
+        return coalesced(key, () -> {
+            final var response = handler.handle();
+            if (response.code() == 200 && response.body() != null && cacheTtlNanos > 0) {
+                cache.put(key, new CacheEntry(response, System.nanoTime() + cacheTtlNanos));
+            }
+            return response;
+        });
+    }
+
+    /**
+     * Produce a response, sharing the result with all concurrent requests for the same key. Only
+     * the first request calls the handler. The others wait for it to finish.
+     */
+    private @NonNull Response coalesced(@NonNull String key, @NonNull Handler handler) {
+        try {
+            return flights.run(key, () -> handle(key, handler));
+        } catch (MStoreException | IOException e) {
+            // handle() never throws, so this only happens if waiting was interrupted.
+            return Response.error(502, e.toString());
+        }
+    }
+
+    /**
+     * Call the handler, converting failures into error responses.
+     */
+    private static @NonNull Response handle(@NonNull String key, @NonNull Handler handler) {
+        try {
+            return handler.handle();
+        } catch (MStoreException | IOException | UncheckedMStoreException
+                 | UncheckedIOException e) {
+            System.err.println("Request for " + key + " failed: " + e);
+            return Response.error(502, e.toString());
+        } catch (JSONException e) {
+            return Response.error(502, "Failed to serialize response: " + e);
+        } catch (RuntimeException e) {
+            //noinspection CallToPrintStackTrace
+            e.printStackTrace();
+            return Response.error(502, e.toString());
+        }
+    }
+
+    private @NonNull JSONObject listObjects(@NonNull String folder, long limit)
+            throws MStoreException, IOException, JSONException {
+        final var listOptions = new MStoreListOptions();
+        listOptions.prefetchDepth = options.prefetchDepth;
+        if (options.pageSize == 0) {
+            listOptions.adaptivePageSize = true;
+        } else {
+            listOptions.pageSize = options.pageSize;
+        }
+
+        final var array = new JSONArray();
+
+        try (final var objects = client.listFolder(folder, listOptions)) {
+            while (array.length() < limit && objects.hasNext()) {
+                array.put(objectToJson(objects.next()));
+            }
+        } catch (UncheckedMStoreException e) {
+            throw e.getCause();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        return new JSONObject().put("objects", array);
+    }
+
+    /**
+     * Look up an object's metadata and return a response that downloads the payload only when the
+     * body is written, so that {@code HEAD} requests never download it.
+     */
+    private @NonNull Response streamPayload(@NonNull String objectPath)
+            throws MStoreException, IOException {
+        final var object = client.getObject(objectPath);
+        final var contentType = object.payloadContentType != null
+                ? object.payloadContentType : "application/octet-stream";
+        final var contentLength = object.payloadSize > 0 ? object.payloadSize : -1;
+
+        return new Response(200, contentType, contentLength, null, output -> {
+            final InputStream stream;
+
+            if (payloadCache != null) {
+                stream = payloadCache.download(client, object);
+            } else {
+                stream = client.downloadObject(object);
+            }
+
+            try (stream) {
+                stream.transferTo(output);
+            }
+        });
+    }
+
+    private static @Nullable String formatInstant(@Nullable Instant instant) {
+        return instant != null ? instant.toString() : null;
+    }
+
+    private static @NonNull JSONObject profileToJson(@NonNull MStoreProfile profile)
+            throws JSONException {
+        return new JSONObject()
+                .put("cos_name", profile.cosName)
+                .put("is_blocked", profile.isBlocked)
+                .put("language", profile.language)
+                .put("migration_timestamp", formatInstant(profile.migrationTimestamp))
+                .put("migration_status", profile.migrationStatus)
+                .put("new_user_tutorial", profile.newUserTutorial)
+                .put("sms_direct_link", profile.smsDirectLink)
+                .put("v2e", profile.v2e)
+                .put("v2t_language", profile.v2tLanguage)
+                .put("enabled", profile.enabled);
+    }
+
+    private static @NonNull JSONObject quotaToJson(@NonNull MStoreQuota quota)
+            throws JSONException {
+        return new JSONObject()
+                .put("size_used_kib", quota.sizeKiBUsed)
+                .put("size_limit_kib", quota.sizeKiBLimit)
+                .put("fax_messages_count", quota.faxMessagesCount)
+                .put("fax_messages_limit", quota.faxMessagesLimit)
+                .put("voicemails_count", quota.voicemailsCount)
+                .put("voicemails_limit", quota.voicemailsLimit)
+                .put("greetings_count", quota.greetingsCount)
+                .put("greetings_limit", quota.greetingsLimit)
+                .put("normal_greetings_count", quota.normalGreetingsCount)
+                .put("normal_greetings_limit", quota.normalGreetingsLimit)
+                .put("voice_signatures_count", quota.voiceSignaturesCount)
+                .put("voice_signatures_limit", quota.voiceSignaturesLimit);
+    }
+
+    private static @NonNull JSONObject objectToJson(@NonNull MStoreObject object)
+            throws JSONException {
+        return new JSONObject()
+                .put("id", object.objectPath)
+                .put("created", formatInstant(object.creationTimestamp))
+                .put("expires", formatInstant(object.expiryTimestamp))
+                .put("duration", object.duration)
+                .put("from", object.fromNumber)
+                .put("filename", object.getFilename())
+                .put("mimetype", object.payloadContentType)
+                .put("size", object.payloadSize)
+                .put("flags", new JSONArray(object.flags));
+    }
+}
@@ -21,49 +21,146 @@ import android.annotation.Nullable;
 import android.app.ActivityThread;
 import android.content.Context;
 import android.net.ConnectivityManager;
+import android.net.Network;
 import android.os.Looper;
 import android.os.TelephonyServiceManager;
 import android.telephony.TelephonyFrameworkInitializer;
 import android.telephony.TelephonyManager;
+import android.util.Base64;
+import android.util.Base64InputStream;
 
+import com.android.voicemail.impl.mstore.Base64BulkDecoder;
+import com.android.voicemail.impl.mstore.MStoreAsyncClient;
+import com.android.voicemail.impl.mstore.MStoreBulkOptions;
+import com.android.voicemail.impl.mstore.MStoreBulkPipeline;
+import com.android.voicemail.impl.mstore.MStoreBulkDownloader;
 import com.android.voicemail.impl.mstore.MStoreClient;
+import com.android.voicemail.impl.mstore.MStoreException;
+import com.android.voicemail.impl.mstore.MStoreListOptions;
 import com.android.voicemail.impl.mstore.MStoreObject;
+import com.android.voicemail.impl.mstore.MStorePayloadCache;
 import com.android.voicemail.impl.mstore.MStoreProfile;
 import com.android.voicemail.impl.mstore.MStoreQuota;
+import com.android.voicemail.impl.mstore.MStoreSearchCriteria;
+import com.android.voicemail.impl.mstore.MStoreSocketTransport;
+import com.android.voicemail.impl.mstore.MStoreTransport;
+import com.android.voicemail.impl.mstore.MStoreUrlConnectionTransport;
+import com.android.voicemail.impl.mstore.UncheckedMStoreException;
 
 import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.EOFException;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Random;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
 @SuppressWarnings("SameParameterValue")
 public class Main {
-    private static void showHelp(@NonNull PrintStream stream) {
+    /** Byte budget for the payload cache enabled by --cache-dir. */
+    static final long PAYLOAD_CACHE_SIZE = 256L * 1024 * 1024;
+
+    static void showHelp(@NonNull PrintStream stream) {
         stream.println("Usage:");
         stream.println("   tmovvm profile show");
         stream.println("   tmovvm profile activate");
         stream.println("   tmovvm profile deactivate");
         stream.println("   tmovvm profile change-pin <old PIN> <new PIN>");
         stream.println("   tmovvm voicemail show");
-        stream.println("   tmovvm voicemail list");
+        stream.println("   tmovvm voicemail list [<LIMIT>]");
         stream.println("   tmovvm voicemail download <ID> [<FILE>]");
-        stream.println("   tmovvm voicemail delete [<ID>...]");
-        stream.println("   tmovvm voicemail mark-read [<ID>...]");
-        stream.println("   tmovvm voicemail mark-unread [<ID>...]");
+        stream.println("   tmovvm voicemail download-all <DIR> [all|read|unread]");
+        stream.println("   tmovvm voicemail delete [<ID>...|<QUERY>...]");
+        stream.println("   tmovvm voicemail mark-read [<ID>...|<QUERY>...]");
+        stream.println("   tmovvm voicemail mark-unread [<ID>...|<QUERY>...]");
         stream.println("   tmovvm greeting show");
-        stream.println("   tmovvm greeting list");
+        stream.println("   tmovvm greeting list [<LIMIT>]");
         stream.println("   tmovvm greeting upload <FILE>");
         stream.println("   tmovvm greeting download <ID> [<FILE>]");
-        stream.println("   tmovvm greeting delete [<ID>...]");
+        stream.println("   tmovvm greeting download-all <DIR> [all|active|inactive]");
+        stream.println("   tmovvm greeting delete [<ID>...|<QUERY>...]");
         stream.println("   tmovvm greeting mark-active [<ID>...]");
         stream.println("   tmovvm greeting mark-inactive [<ID>...]");
+        stream.println("   tmovvm debug bench-base64 [<MIB>]");
+        stream.println("   tmovvm debug probe-search [voicemail|greeting]");
+        stream.println("   tmovvm serve [--socket <NAME>]");
+        stream.println("   tmovvm gateway [--port <PORT>] [--token <TOKEN>] [--cache-ttl <SECS>]");
+        stream.println();
+        stream.println("Options (must be specified before the command):");
+        stream.println("   --transport <urlconnection|socket>");
+        stream.println("       HTTP implementation to use. Defaults to urlconnection.");
+        stream.println("   --prefetch <DEPTH>");
+        stream.println("       Number of pages to request ahead when listing. Defaults to 0.");
+        stream.println("   --page-size <SIZE|auto>");
+        stream.println("       Number of objects per page when listing. Defaults to 100.");
+        stream.println("   --cache-dir <DIR>");
+        stream.println("       Cache downloaded payloads in this directory (up to 256 MiB).");
+        stream.println("   --jobs <N>");
+        stream.println("       Number of concurrent downloads for download-all and concurrent");
+        stream.println("       requests for bulk commands. Defaults to 4.");
+        stream.println("   --timings");
+        stream.println("       Print how long each phase of every request took to stderr.");
+        stream.println();
+        stream.println("Queries (instead of IDs, all conditions must match):");
+        stream.println("   --all");
+        stream.println("       Match every object.");
+        stream.println("   --read, --unread (voicemail) or --active, --inactive (greeting)");
+        stream.println("       Match objects with the flag set or unset.");
+        stream.println("   --older-than <AGE>, --newer-than <AGE>");
+        stream.println("       Match objects by age, eg. 30d, 12h, 45m, or 90s.");
+    }
+
+    static class Options {
+        /** HTTP implementation to use for API calls. */
+        @NonNull
+        String transport = "urlconnection";
+
+        /** Number of search result pages to request ahead of the one being printed. */
+        int prefetchDepth = 0;
+
+        /** Number of objects per search result page or 0 to pick automatically. */
+        int pageSize = MStoreListOptions.DEFAULT_PAGE_SIZE;
+
+        /** Directory for caching downloaded payloads or null to disable caching. */
+        @Nullable
+        String cacheDir;
+
+        /** Number of concurrent downloads or bulk requests. */
+        int jobs = MStoreAsyncClient.DEFAULT_PARALLELISM;
+
+        /** Whether to print the timing breakdown of every request to stderr. */
+        boolean timings = false;
+
+        /**
+         * Create a copy of these options, so that a single command can override them.
+         */
+        @NonNull
+        Options copy() {
+            final var options = new Options();
+            options.transport = transport;
+            options.prefetchDepth = prefetchDepth;
+            options.pageSize = pageSize;
+            options.cacheDir = cacheDir;
+            options.jobs = jobs;
+            options.timings = timings;
+            return options;
+        }
     }
 
     static class ArgValidationException extends Exception {
@@ -97,6 +194,103 @@ public class Main {
         }
     }
 
+    /**
+     * Parse global options from the beginning of the argument list and return the remaining
+     * arguments.
+     */
+    static @NonNull String[] parseOptions(@NonNull String[] args,
+            @NonNull Options options) throws ArgValidationException {
+        var i = 0;
+
+        for (; i < args.length && args[i].startsWith("--"); i++) {
+            final var arg = args[i];
+
+            if ("--".equals(arg)) {
+                i++;
+                break;
+            }
+
+            // Flags that don't take a value.
+            if ("--timings".equals(arg)) {
+                options.timings = true;
+                continue;
+            }
+
+            final var eq = arg.indexOf('=');
+            final var name = eq == -1 ? arg : arg.substring(0, eq);
+            final String value;
+
+            if (eq != -1) {
+                value = arg.substring(eq + 1);
+            } else if (i + 1 < args.length) {
+                value = args[++i];
+            } else {
+                throw new ArgValidationException("Missing value for option: " + name);
+            }
+
+            switch (name) {
+                case "--transport" -> {
+                    switch (value) {
+                        case "urlconnection", "socket" -> options.transport = value;
+                        default -> throw new ArgValidationException(
+                                "Invalid transport: " + value);
+                    }
+                }
+                case "--prefetch" -> options.prefetchDepth = parseNonNegativeInt(value);
+                case "--page-size" -> options.pageSize =
+                        "auto".equals(value) ? 0 : parsePositiveInt(value);
+                case "--cache-dir" -> options.cacheDir = value;
+                case "--jobs" -> options.jobs = parsePositiveInt(value);
+                default -> throw new ArgValidationException("Unknown option: " + name);
+            }
+        }
+
+        return Arrays.copyOfRange(args, i, args.length);
+    }
+
+    private static @NonNull MStoreTransport createTransport(@NonNull Options options,
+            @NonNull Network network) {
+        return switch (options.transport) {
+            case "socket" -> new MStoreSocketTransport(network);
+            default -> new MStoreUrlConnectionTransport(network);
+        };
+    }
+
+    private static long parsePositiveLong(@NonNull String value) throws ArgValidationException {
+        try {
+            final var result = Long.parseLong(value);
+            if (result > 0) {
+                return result;
+            }
+        } catch (NumberFormatException e) {
+            // Fall through.
+        }
+
+        throw new ArgValidationException("Expected a positive integer: " + value);
+    }
+
+    private static int parsePositiveInt(@NonNull String value) throws ArgValidationException {
+        final var result = parseNonNegativeInt(value);
+        if (result == 0) {
+            throw new ArgValidationException("Expected a positive integer: " + value);
+        }
+
+        return result;
+    }
+
+    private static int parseNonNegativeInt(@NonNull String value) throws ArgValidationException {
+        try {
+            final var result = Integer.parseInt(value);
+            if (result >= 0) {
+                return result;
+            }
+        } catch (NumberFormatException e) {
+            // Fall through.
+        }
+
+        throw new ArgValidationException("Expected a non-negative integer: " + value);
+    }
+
     private static void showProfile(@NonNull MStoreProfile profile,
             @NonNull PrintStream stream) {
         stream.println("enabled=" + profile.enabled);
@@ -144,29 +338,88 @@ public class Main {
         }
     }
 
-    private static void showObjects(@NonNull List<MStoreObject> objects,
-            @NonNull PrintStream stream) {
-        for (var object : objects) {
-            final var flags = object.flags
-                    .stream()
-                    .map(f -> switch (f) {
-                        case MStoreClient.FLAG_RECENT -> "recent";
-                        case MStoreClient.FLAG_SEEN -> "read";
-                        case MStoreClient.FLAG_VOICEMAIL_KEEP -> "keep";
-                        case MStoreClient.FLAG_GREETING_ACTIVE -> "active";
-                        default -> f;
-                    })
-                    .collect(Collectors.joining(","));
-
-            stream.println(object.objectPath);
-            stream.println("  created=" + object.creationTimestamp);
-            stream.println("  expires=" + object.expiryTimestamp);
-            stream.println("  duration=" + object.duration + "s");
-            stream.println("  from=" + object.fromNumber);
-            stream.println("  filename=" + object.getFilename());
-            stream.println("  mimetype=" + object.payloadContentType);
-            stream.println("  size=" + object.payloadSize + "B");
-            stream.println("  flags=" + flags);
+    private static void showObject(@NonNull MStoreObject object, @NonNull PrintStream stream) {
+        final var flags = object.flags
+                .stream()
+                .map(f -> switch (f) {
+                    case MStoreClient.FLAG_RECENT -> "recent";
+                    case MStoreClient.FLAG_SEEN -> "read";
+                    case MStoreClient.FLAG_VOICEMAIL_KEEP -> "keep";
+                    case MStoreClient.FLAG_GREETING_ACTIVE -> "active";
+                    default -> f;
+                })
+                .collect(Collectors.joining(","));
+
+        stream.println(object.objectPath);
+        stream.println("  created=" + object.creationTimestamp);
+        stream.println("  expires=" + object.expiryTimestamp);
+        stream.println("  duration=" + object.duration + "s");
+        stream.println("  from=" + object.fromNumber);
+        stream.println("  filename=" + object.getFilename());
+        stream.println("  mimetype=" + object.payloadContentType);
+        stream.println("  size=" + object.payloadSize + "B");
+        stream.println("  flags=" + flags);
+    }
+
+    /**
+     * Print objects in a folder as they are received. If a limit is specified, no further pages
+     * are requested once that many objects have been printed.
+     */
+    private static void listObjects(@NonNull MStoreClient client, @NonNull Options options,
+            @NonNull String folder, @Nullable String limitArg, @NonNull PrintStream stream)
+            throws Exception {
+        final long limit = limitArg != null ? parsePositiveLong(limitArg) : Long.MAX_VALUE;
+
+        final var listOptions = new MStoreListOptions();
+        listOptions.prefetchDepth = options.prefetchDepth;
+        if (options.pageSize == 0) {
+            listOptions.adaptivePageSize = true;
+        } else {
+            listOptions.pageSize = options.pageSize;
+        }
+
+        try (final var objects = client.listFolder(folder, listOptions).stream()) {
+            objects.limit(limit).forEachOrdered(o -> showObject(o, stream));
+        } catch (UncheckedMStoreException e) {
+            throw e.getCause();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Get the bulk request options corresponding to the command line options.
+     */
+    private static @NonNull MStoreBulkOptions getBulkOptions(@NonNull Options options) {
+        final var bulkOptions = new MStoreBulkOptions();
+        bulkOptions.concurrency = options.jobs;
+        return bulkOptions;
+    }
+
+    /**
+     * Get a pipeline for query-driven bulk commands.
+     */
+    private static @NonNull MStoreBulkPipeline getBulkPipeline(@NonNull MStoreClient client,
+            @NonNull Options options) {
+        return new MStoreBulkPipeline(client, getBulkOptions(options));
+    }
+
+    /**
+     * Download the payload for an object to a file. If the payload cache is enabled, the payload is
+     * copied from the cache. Otherwise, the download is resumable.
+     */
+    private static void downloadToFile(@NonNull MStoreClient client, @NonNull Options options,
+            @NonNull MStoreObject object, @NonNull File file) throws Exception {
+        if (options.cacheDir == null) {
+            client.downloadObject(object, file);
+            return;
+        }
+
+        final var cache = new MStorePayloadCache(new File(options.cacheDir), PAYLOAD_CACHE_SIZE);
+
+        try (final var input = cache.download(client, object);
+                final var output = new FileOutputStream(file)) {
+            input.transferTo(output);
         }
     }
 
@@ -192,6 +445,194 @@ public class Main {
         return fallback;
     }
 
+    /**
+     * Get the extension, including the leading dot, of the object's filename or the fallback if
+     * there is none.
+     */
+    private static @NonNull String getExtension(@NonNull MStoreObject object,
+            @NonNull String fallback) {
+        final var filename = object.getFilename();
+        if (filename != null) {
+            final var extension = filename.substring(filename.lastIndexOf('.') + 1);
+            if (!extension.equals(filename) && extension.matches("[A-Za-z0-9]{1,8}")) {
+                return "." + extension;
+            }
+        }
+
+        return fallback;
+    }
+
+    /**
+     * Parse a download-all filter. Each filter requires a flag to be either set or unset.
+     */
+    private static @NonNull Predicate<MStoreObject> parseFilter(@Nullable String filter,
+            @NonNull String flag, @NonNull String setName, @NonNull String unsetName)
+            throws ArgValidationException {
+        if (filter == null || "all".equals(filter)) {
+            return o -> true;
+        } else if (setName.equals(filter)) {
+            return o -> o.flags.contains(flag);
+        } else if (unsetName.equals(filter)) {
+            return o -> !o.flags.contains(flag);
+        }
+
+        throw new ArgValidationException("Invalid filter: " + filter);
+    }
+
+    /**
+     * Whether the arguments of a bulk command starting at {@code start} are a query instead of a
+     * list of object IDs.
+     */
+    private static boolean isQuery(@NonNull String[] args, int start) {
+        return args.length > start && args[start].startsWith("--");
+    }
+
+    /**
+     * Parse an age, like {@code 30d}, into a duration.
+     */
+    private static @NonNull Duration parseAge(@NonNull String value)
+            throws ArgValidationException {
+        if (value.length() >= 2) {
+            final var amount = value.substring(0, value.length() - 1);
+            final var unit = switch (value.charAt(value.length() - 1)) {
+                case 's' -> ChronoUnit.SECONDS;
+                case 'm' -> ChronoUnit.MINUTES;
+                case 'h' -> ChronoUnit.HOURS;
+                case 'd' -> ChronoUnit.DAYS;
+                default -> null;
+            };
+
+            if (unit != null) {
+                try {
+                    return Duration.of(parsePositiveLong(amount), unit);
+                } catch (ArgValidationException e) {
+                    // Fall through.
+                }
+            }
+        }
+
+        throw new ArgValidationException("Invalid age: " + value);
+    }
+
+    /**
+     * Parse the query for a bulk command. All conditions must match. At least one condition is
+     * required so that a missing argument doesn't accidentally match every object. The conditions
+     * are sent to the server as search criteria, so that only the matching objects are listed if
+     * the server supports them, and are also checked on the client.
+     */
+    private static @NonNull MStoreSearchCriteria parseQuery(@NonNull String folder,
+            @NonNull String[] args, int start, @NonNull String flag, @NonNull String setName,
+            @NonNull String unsetName) throws ArgValidationException {
+        final var now = Instant.now();
+        final var criteria = new MStoreSearchCriteria(folder);
+        Boolean flagValue = null;
+        Instant from = null;
+        Instant until = null;
+
+        for (var i = start; i < args.length; i++) {
+            final var arg = args[i];
+
+            if ("--all".equals(arg)) {
+                continue;
+            } else if (("--" + setName).equals(arg) || ("--" + unsetName).equals(arg)) {
+                final var value = ("--" + setName).equals(arg);
+                if (flagValue != null && flagValue != value) {
+                    throw new ArgValidationException("Conflicting queries: --" + setName
+                            + " and --" + unsetName);
+                }
+                flagValue = value;
+            } else if ("--older-than".equals(arg) || "--newer-than".equals(arg)) {
+                if (i + 1 == args.length) {
+                    throw new ArgValidationException("Missing value for query: " + arg);
+                }
+
+                final var cutoff = now.minus(parseAge(args[++i]));
+                if ("--older-than".equals(arg)) {
+                    until = until == null || cutoff.isBefore(until) ? cutoff : until;
+                } else {
+                    from = from == null || cutoff.isAfter(from) ? cutoff : from;
+                }
+            } else {
+                throw new ArgValidationException("Invalid query: " + arg);
+            }
+        }
+
+        if (flagValue != null) {
+            if (flagValue) {
+                criteria.withFlag(flag);
+            } else {
+                criteria.withoutFlag(flag);
+            }
+        }
+        if (from != null || until != null) {
+            criteria.setDateRange(from, until);
+        }
+
+        return criteria;
+    }
+
+    /**
+     * Print a summary of a query-driven bulk command.
+     */
+    private static void showPipelineResult(@NonNull MStoreBulkPipeline.Result result,
+            @NonNull PrintStream stream) throws Exception {
+        for (var objectPath : result.bulkResult.getFailed()) {
+            final var item = result.bulkResult.items.get(objectPath);
+            final var error = result.bulkResult.errors.get(objectPath);
+            stream.println(objectPath + ": " + (item != null ? item.code + " " + item.reason
+                    : error != null ? error : "no response"));
+        }
+
+        stream.printf("Matched %d of %d objects, %d succeeded, %d failed (%d requests, %.1fs)%n",
+                result.matched, result.listed, result.bulkResult.getSucceeded().size(),
+                result.bulkResult.getFailed().size(), result.bulkResult.requests,
+                result.elapsedNanos / 1e9);
+
+        if (!result.bulkResult.isSuccess()) {
+            throw new Exception("Bulk request failed for some objects");
+        }
+    }
+
+    /**
+     * Download all matching objects in a folder into a directory and print a summary.
+     */
+    private static void downloadAll(@NonNull MStoreClient client, @NonNull Options options,
+            @NonNull String folder, @NonNull String dir, @NonNull Predicate<MStoreObject> filter,
+            @NonNull String fallbackExtension, @NonNull PrintStream stream) throws Exception {
+        final var outputDir = new File(dir);
+        Files.createDirectories(outputDir.toPath());
+
+        final var downloader = new MStoreBulkDownloader(client, options.jobs);
+        final var result = downloader.downloadAll(folder, filter,
+                o -> {
+                    // The server's filenames are not unique (eg. every greeting is audio.amr), so
+                    // name the files after the object IDs and only keep the extension.
+                    final var name = o.objectPath.substring(o.objectPath.lastIndexOf('/') + 1);
+                    return new File(outputDir,
+                            sanitizeFilename(name) + getExtension(o, fallbackExtension));
+                },
+                new MStoreBulkDownloader.Listener() {
+                    @Override
+                    public void onDownloaded(@NonNull MStoreObject object, @NonNull File file,
+                            long bytes) {
+                        stream.println(file + ": " + bytes + "B");
+                    }
+
+                    @Override
+                    public void onFailed(@NonNull MStoreObject object, @NonNull Exception e) {
+                        stream.println(object.objectPath + ": " + e);
+                    }
+                });
+
+        stream.printf("Downloaded %d objects (%d B) in %.1fs (%.1f KiB/s)%n",
+                result.downloaded, result.bytes, result.elapsedNanos / 1e9,
+                result.getBytesPerSecond() / 1024);
+
+        if (!result.failures.isEmpty()) {
+            throw new Exception(result.failures.size() + " downloads failed");
+        }
+    }
+
     private static long getAmrDurationMs(@NonNull String path) throws IOException {
         final var HEADER = new byte[]{'#', '!', 'A', 'M', 'R', '\n'};
 
@@ -236,8 +677,188 @@ public class Main {
         }
     }
 
-    private static void runCommand(@NonNull String[] args, @NonNull MStoreClient client)
+    /**
+     * Measure base64 decoding throughput of {@link Base64InputStream} versus
+     * {@link Base64BulkDecoder} for a randomly generated payload written to a temporary file.
+     */
+    private static void benchBase64(@Nullable String sizeArg, @NonNull PrintStream stream)
             throws Exception {
+        final var sizeMiB = sizeArg != null ? parsePositiveInt(sizeArg) : 16;
+        // The base64 encoded copy is 4/3 as large and must also fit in an array.
+        if (sizeMiB > 1024) {
+            throw new ArgValidationException("Size must be at most 1024 MiB: " + sizeMiB);
+        }
+
+        final var data = new byte[sizeMiB * 1024 * 1024];
+        new Random().nextBytes(data);
+
+        // Line wrapped, like the payloads from the server.
+        final var encoded = Base64.encode(data, Base64.DEFAULT);
+        final var file = File.createTempFile("bench-base64", ".bin");
+        final var decoder = new Base64BulkDecoder();
+        final var rounds = 5;
+
+        try {
+            long bestStream = Long.MAX_VALUE;
+            long bestBulk = Long.MAX_VALUE;
+
+            for (var i = 0; i < rounds; i++) {
+                var start = System.nanoTime();
+                try (final var input = new Base64InputStream(
+                        new ByteArrayInputStream(encoded), Base64.DEFAULT);
+                        final var output = new FileOutputStream(file)) {
+                    input.transferTo(output);
+                }
+                bestStream = Math.min(bestStream, System.nanoTime() - start);
+
+                start = System.nanoTime();
+                try (final var output = new FileOutputStream(file);
+                        final var channel = output.getChannel()) {
+                    decoder.decode(new ByteArrayInputStream(encoded), channel);
+                }
+                bestBulk = Math.min(bestBulk, System.nanoTime() - start);
+            }
+
+            if (file.length() != data.length) {
+                throw new IllegalStateException("Decoded size mismatch: " + file.length());
+            }
+
+            stream.printf("Decoding %d MiB of base64 (%d bytes encoded), best of %d:%n",
+                    sizeMiB, encoded.length, rounds);
+            stream.printf("  Base64InputStream + transferTo: %.1f MB/s%n",
+                    encoded.length * 1e3 / bestStream);
+            stream.printf("  Base64BulkDecoder -> FileChannel: %.1f MB/s%n",
+                    encoded.length * 1e3 / bestBulk);
+        } finally {
+            Files.deleteIfExists(file.toPath());
+        }
+    }
+
+    /**
+     * Run a search and collect the object paths of the results in order.
+     */
+    private static @NonNull List<String> collectSearch(@NonNull MStoreClient client,
+            @NonNull MStoreSearchCriteria criteria) throws Exception {
+        final var listOptions = new MStoreListOptions();
+        listOptions.adaptivePageSize = true;
+
+        try (final var objects = client.search(criteria, listOptions).stream()) {
+            return objects.map(o -> o.objectPath).collect(Collectors.toList());
+        } catch (UncheckedMStoreException e) {
+            throw e.getCause();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Test which search criteria the server supports by comparing the results of server-side
+     * searches against a full listing that is filtered on the client.
+     */
+    private static void probeSearch(@NonNull MStoreClient client, @NonNull String folder,
+            @NonNull PrintStream stream) throws Exception {
+        final var allObjects = new ArrayList<MStoreObject>();
+        try (final var iterator = client.listFolder(folder)) {
+            iterator.forEachRemaining(allObjects::add);
+        } catch (UncheckedMStoreException e) {
+            throw e.getCause();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        final var allPaths = allObjects.stream()
+                .map(o -> o.objectPath)
+                .collect(Collectors.toList());
+
+        stream.println("Folder contains " + allObjects.size() + " objects");
+        if (allObjects.isEmpty()) {
+            stream.println("Results are inconclusive for an empty folder");
+        }
+
+        final var sample = allObjects.isEmpty() ? null : allObjects.get(allObjects.size() / 2);
+        final var cases = new LinkedHashMap<String, MStoreSearchCriteria>();
+        cases.put("Flag (set)", new MStoreSearchCriteria(folder)
+                .withFlag(MStoreClient.FLAG_SEEN));
+        cases.put("Flag (unset)", new MStoreSearchCriteria(folder)
+                .withoutFlag(MStoreClient.FLAG_SEEN));
+        if (sample != null && sample.creationTimestamp != null) {
+            cases.put("Date (from)", new MStoreSearchCriteria(folder)
+                    .setDateRange(sample.creationTimestamp, null));
+            cases.put("Date (until)", new MStoreSearchCriteria(folder)
+                    .setDateRange(null, sample.creationTimestamp));
+        }
+        if (sample != null && sample.fromNumber != null) {
+            cases.put("Attribute (from)", new MStoreSearchCriteria(folder)
+                    .setSender(sample.fromNumber));
+        }
+        cases.put("Sort (ascending)", new MStoreSearchCriteria(folder)
+                .setSortOrder(MStoreSearchCriteria.SortOrder.ASCENDING));
+
+        for (var entry : cases.entrySet()) {
+            final var criteria = entry.getValue().setClientSideFiltering(false);
+            final List<String> expected;
+            if (criteria.getSortOrder() == MStoreSearchCriteria.SortOrder.ASCENDING) {
+                expected = new ArrayList<>(allPaths);
+                Collections.reverse(expected);
+            } else {
+                expected = allObjects.stream()
+                        .filter(criteria::matches)
+                        .map(o -> o.objectPath)
+                        .collect(Collectors.toList());
+            }
+
+            final List<String> actual;
+            try {
+                actual = collectSearch(client, criteria);
+            } catch (MStoreException e) {
+                stream.println(entry.getKey() + ": rejected: " + e.getMessage());
+                continue;
+            }
+
+            final String status;
+            if (actual.equals(expected)) {
+                status = "supported";
+            } else if (actual.equals(allPaths)) {
+                status = "ignored";
+            } else {
+                final var missing = expected.stream().filter(p -> !actual.contains(p)).count();
+                final var extra = actual.stream().filter(p -> !expected.contains(p)).count();
+                status = "mismatch (" + missing + " missing, " + extra + " extra)";
+            }
+
+            stream.println(entry.getKey() + ": " + status + " (" + actual.size() + " returned, "
+                    + expected.size() + " expected)");
+        }
+    }
+
+    /**
+     * Run a command that does not require network access. Output is written to the specified
+     * stream.
+     *
+     * @return Whether the command was an offline command.
+     */
+    static boolean runOfflineCommand(@NonNull String[] args, @NonNull PrintStream stream)
+            throws Exception {
+        if (args.length < 2 || !"debug".equals(args[0])) {
+            return false;
+        }
+
+        switch (args[1]) {
+            case "bench-base64" -> {
+                ensureArgsBetweenInclusive(args, 2, 3);
+                benchBase64(args.length == 3 ? args[2] : null, stream);
+                return true;
+            }
+            default -> {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Run a command that requires network access. Output is written to the specified stream.
+     */
+    static void runCommand(@NonNull String[] args, @NonNull Options options,
+            @NonNull MStoreClient client, @NonNull PrintStream stream) throws Exception {
         ensureArgsAtLeast(args, 2);
 
         switch (args[0]) {
@@ -246,7 +867,7 @@ public class Main {
                     case "show" -> {
                         ensureArgsExactly(args, 2);
                         final var profile = client.getProfile();
-                        showProfile(profile, System.out);
+                        showProfile(profile, stream);
                     }
                     case "activate" -> {
                         ensureArgsExactly(args, 2);
@@ -275,38 +896,52 @@ public class Main {
                     case "show" -> {
                         ensureArgsExactly(args, 2);
                         final var quota = client.getQuota(MStoreClient.FOLDER_VOICEMAILS);
-                        showQuota(quota, System.out);
+                        showQuota(quota, stream);
                     }
                     case "list" -> {
-                        ensureArgsExactly(args, 2);
-                        final var objects = client.getFolderObjects(MStoreClient.FOLDER_VOICEMAILS);
-                        showObjects(objects, System.out);
+                        ensureArgsBetweenInclusive(args, 2, 3);
+                        listObjects(client, options, MStoreClient.FOLDER_VOICEMAILS,
+                                args.length == 3 ? args[2] : null, stream);
                     }
                     case "download" -> {
                         ensureArgsBetweenInclusive(args, 3, 4);
                         final var object = client.getObject(args[2]);
-                        try (final var input = client.downloadObject(object)) {
-                            final var filename = getFilename(args.length == 4 ? args[3] : null,
-                                    object, "voicemail.amr");
-
-                            try (final var output = new FileOutputStream(filename)) {
-                                input.transferTo(output);
-                            }
-                        }
+                        final var filename = getFilename(args.length == 4 ? args[3] : null,
+                                object, "voicemail.amr");
+                        downloadToFile(client, options, object, new File(filename));
                     }
-                    case "delete" -> {
-                        ensureArgsAtLeast(args, 3);
-                        client.bulkDelete(Arrays.asList(args).subList(2, args.length));
+                    case "download-all" -> {
+                        ensureArgsBetweenInclusive(args, 3, 4);
+                        final var filter = parseFilter(args.length == 4 ? args[3] : null,
+                                MStoreClient.FLAG_SEEN, "read", "unread");
+                        downloadAll(client, options, MStoreClient.FOLDER_VOICEMAILS, args[2],
+                                filter, ".amr", stream);
                     }
-                    case "mark-read" -> {
+                    case "delete" -> {
                         ensureArgsAtLeast(args, 3);
-                        client.bulkSetFlag(Arrays.asList(args).subList(2, args.length),
-                                Collections.singletonList(MStoreClient.FLAG_SEEN), true);
+                        if (isQuery(args, 2)) {
+                            final var criteria = parseQuery(MStoreClient.FOLDER_VOICEMAILS, args,
+                                    2, MStoreClient.FLAG_SEEN, "read", "unread");
+                            showPipelineResult(getBulkPipeline(client, options).delete(criteria),
+                                    stream);
+                        } else {
+                            client.bulkDelete(Arrays.asList(args).subList(2, args.length),
+                                    getBulkOptions(options)).throwIfFailed();
+                        }
                     }
-                    case "mark-unread" -> {
+                    case "mark-read", "mark-unread" -> {
                         ensureArgsAtLeast(args, 3);
-                        client.bulkSetFlag(Arrays.asList(args).subList(2, args.length),
-                                Collections.singletonList(MStoreClient.FLAG_SEEN), false);
+                        final var value = "mark-read".equals(args[1]);
+                        final var flags = Collections.singletonList(MStoreClient.FLAG_SEEN);
+                        if (isQuery(args, 2)) {
+                            final var criteria = parseQuery(MStoreClient.FOLDER_VOICEMAILS, args,
+                                    2, MStoreClient.FLAG_SEEN, "read", "unread");
+                            showPipelineResult(getBulkPipeline(client, options)
+                                    .setFlag(criteria, flags, value), stream);
+                        } else {
+                            client.bulkSetFlag(Arrays.asList(args).subList(2, args.length),
+                                    flags, value, getBulkOptions(options)).throwIfFailed();
+                        }
                     }
                     default -> throw new Exception("Unknown voicemail command: " + args[1]);
                 }
@@ -316,12 +951,12 @@ public class Main {
                     case "show" -> {
                         ensureArgsExactly(args, 2);
                         final var quota = client.getQuota(MStoreClient.FOLDER_GREETINGS);
-                        showQuota(quota, System.out);
+                        showQuota(quota, stream);
                     }
                     case "list" -> {
-                        ensureArgsExactly(args, 2);
-                        final var objects = client.getFolderObjects(MStoreClient.FOLDER_GREETINGS);
-                        showObjects(objects, System.out);
+                        ensureArgsBetweenInclusive(args, 2, 3);
+                        listObjects(client, options, MStoreClient.FOLDER_GREETINGS,
+                                args.length == 3 ? args[2] : null, stream);
                     }
                     case "upload" -> {
                         ensureArgsExactly(args, 3);
@@ -337,26 +972,35 @@ public class Main {
                         // We intentionally don't mark the greeting as active. The user should do
                         // that manually and mark existing active greetings as inactive.
 
-                        try (final var input = new FileInputStream(args[2])) {
-                            final var data = input.readAllBytes();
-                            client.uploadObject(MStoreClient.FOLDER_GREETINGS, object, data);
+                        try (final var input = FileChannel.open(Path.of(args[2]))) {
+                            client.uploadObject(MStoreClient.FOLDER_GREETINGS, object, input);
                         }
                     }
                     case "download" -> {
                         ensureArgsBetweenInclusive(args, 3, 4);
                         final var object = client.getObject(args[2]);
-                        try (final var input = client.downloadObject(object)) {
-                            final var filename = getFilename(args.length == 4 ? args[3] : null,
-                                    object, "greeting.amr");
-
-                            try (final var output = new FileOutputStream(filename)) {
-                                input.transferTo(output);
-                            }
-                        }
+                        final var filename = getFilename(args.length == 4 ? args[3] : null,
+                                object, "greeting.amr");
+                        downloadToFile(client, options, object, new File(filename));
+                    }
+                    case "download-all" -> {
+                        ensureArgsBetweenInclusive(args, 3, 4);
+                        final var filter = parseFilter(args.length == 4 ? args[3] : null,
+                                MStoreClient.FLAG_GREETING_ACTIVE, "active", "inactive");
+                        downloadAll(client, options, MStoreClient.FOLDER_GREETINGS, args[2],
+                                filter, ".amr", stream);
                     }
                     case "delete" -> {
                         ensureArgsAtLeast(args, 3);
-                        client.bulkDelete(Arrays.asList(args).subList(2, args.length));
+                        if (isQuery(args, 2)) {
+                            final var criteria = parseQuery(MStoreClient.FOLDER_GREETINGS, args,
+                                    2, MStoreClient.FLAG_GREETING_ACTIVE, "active", "inactive");
+                            showPipelineResult(getBulkPipeline(client, options).delete(criteria),
+                                    stream);
+                        } else {
+                            client.bulkDelete(Arrays.asList(args).subList(2, args.length),
+                                    getBulkOptions(options)).throwIfFailed();
+                        }
                     }
                     case "mark-active" -> {
                         ensureArgsExactly(args, 3);
@@ -369,11 +1013,33 @@ public class Main {
                     default -> throw new Exception("Unknown greeting command: " + args[1]);
                 }
             }
+            case "debug" -> {
+                switch (args[1]) {
+                    case "probe-search" -> {
+                        ensureArgsBetweenInclusive(args, 2, 3);
+                        final var folder = switch (args.length == 3 ? args[2] : "voicemail") {
+                            case "voicemail" -> MStoreClient.FOLDER_VOICEMAILS;
+                            case "greeting" -> MStoreClient.FOLDER_GREETINGS;
+                            default -> throw new ArgValidationException(
+                                    "Invalid folder: " + args[2]);
+                        };
+                        probeSearch(client, folder, stream);
+                    }
+                    default -> throw new Exception("Unknown debug command: " + args[1]);
+                }
+            }
             default -> throw new Exception("Unknown command: " + args[0]);
         }
     }
 
-    private static void init(@NonNull String[] args) throws Exception {
+    private static void init(@NonNull String[] rawArgs) throws Exception {
+        final var options = new Options();
+        final var args = parseOptions(rawArgs, options);
+
+        if (runOfflineCommand(args, System.out)) {
+            return;
+        }
+
         // A looper is required for creating a context. This is deprecated for application usage,
         // but not for system usage. ActivityThread also does this during initialization.
         //noinspection deprecation
@@ -399,9 +1065,18 @@ public class Main {
             throw new IllegalStateException("No active network connection");
         }
 
-        final var client = new MStoreClient(telephonyManager, network);
+        final var client = new MStoreClient(telephonyManager, createTransport(options, network));
+        if (options.timings) {
+            client.setTimingListener(t -> System.err.println("timings: " + t));
+        }
 
-        runCommand(args, client);
+        if (args.length > 0 && "serve".equals(args[0])) {
+            new CommandServer(options, client).serve(args);
+        } else if (args.length > 0 && "gateway".equals(args[0])) {
+            new HttpGateway(options, client).serve(args);
+        } else {
+            runCommand(args, options, client, System.out);
+        }
     }
 
     public static void main(String[] args) {
@@ -409,7 +1084,7 @@ public class Main {
             init(args);
 
             // Explicitly exit because we have no way of killing the "OkHttp ConnectionPool" thread
-            // created by Network.openConnection().
+            // created by Network.openConnection() when using the urlconnection transport.
             System.exit(0);
         } catch (ArgValidationException e) {
             System.err.println(e.getMessage());
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2024 Andrew Gunnerson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.voicemail.impl.mstore;
+
+/**
+ * Picks the {@code maxEntries} value for each page of a folder listing based on how the previous
+ * pages performed.
+ *
+ * Every page has a large fixed cost: two connections, a GBA bootstrap on the SIM, and the server's
+ * query time. Each object then adds a roughly constant cost for transferring and decoding it. This
+ * models the time for a page of n objects as {@code fixed + n * perObject} and estimates both terms
+ * from the time until the response headers arrive and the time spent reading the body. The total
+ * time for a listing is minimized by making pages as large as possible, so the page size is grown
+ * until the fixed cost is a small fraction of each page, but bounded so that individual pages do
+ * not take too long or use too much memory when prefetched.
+ *
+ * The first page is small so that the first objects are available quickly. Growth is limited to
+ * a factor of {@link #MAX_GROWTH} per page so that a single noisy measurement cannot cause a huge
+ * request. This class is thread-safe because prefetched pages are requested in the background.
+ */
+class AdaptivePageSizer {
+    static final int INITIAL_PAGE_SIZE = 20;
+    static final int MIN_PAGE_SIZE = 10;
+    static final int MAX_PAGE_SIZE = 1000;
+
+    /** Maximum factor by which the page size can grow from one page to the next. */
+    private static final int MAX_GROWTH = 4;
+
+    /** Grow pages until the fixed per-page cost is at most 1/(1 + this) of each page's time. */
+    private static final double FIXED_COST_RATIO = 4.0;
+
+    /** Shrink pages if a single page is expected to take longer than this. */
+    private static final long MAX_PAGE_NANOS = 15L * 1000 * 1000 * 1000;
+
+    /** Shrink pages if a single response is expected to be larger than this. */
+    private static final long MAX_PAGE_BYTES = 1024 * 1024;
+
+    /** Weight of the newest sample in the moving averages. */
+    private static final double SMOOTHING = 0.5;
+
+    private int maxPageSize = MAX_PAGE_SIZE;
+    private int pageSize = INITIAL_PAGE_SIZE;
+    private double fixedNanos = Double.NaN;
+    private double perObjectNanos = Double.NaN;
+    private double perObjectBytes = Double.NaN;
+
+    private static double smooth(double average, double sample) {
+        return Double.isNaN(average) ? sample : average + SMOOTHING * (sample - average);
+    }
+
+    /**
+     * Get the number of entries to request for the next page.
+     */
+    synchronized int nextPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * Record the measurements for a completed page and compute the size of the next page.
+     *
+     * @param requested The {@code maxEntries} value that was sent.
+     * @param headerNanos Time from starting the request until the response headers were received.
+     * @param bodyNanos Time spent reading and decoding the response body.
+     * @param bytes Size of the response body.
+     * @param count Number of objects in the response.
+     * @param hasMore Whether the response included a cursor for another page.
+     */
+    synchronized void onPageFinished(int requested, long headerNanos, long bodyNanos, long bytes,
+            int count, boolean hasMore) {
+        if (hasMore && count > 0 && count < requested) {
+            // The server capped the page size. Don't ask for more than it is willing to return.
+            maxPageSize = Math.max(MIN_PAGE_SIZE, count);
+        }
+
+        if (count == 0) {
+            return;
+        }
+
+        fixedNanos = smooth(fixedNanos, headerNanos);
+        perObjectNanos = smooth(perObjectNanos, (double) bodyNanos / count);
+        perObjectBytes = smooth(perObjectBytes, (double) bytes / count);
+
+        double target;
+        if (perObjectNanos <= 0) {
+            target = maxPageSize;
+        } else {
+            target = FIXED_COST_RATIO * fixedNanos / perObjectNanos;
+            target = Math.min(target, (MAX_PAGE_NANOS - fixedNanos) / perObjectNanos);
+        }
+        if (perObjectBytes > 0) {
+            target = Math.min(target, MAX_PAGE_BYTES / perObjectBytes);
+        }
+
+        // Growth is relative to the page that was just measured, not the most recently handed out
+        // size, since prefetching may have already requested later pages.
+        final var limit = (long) requested * MAX_GROWTH;
+
+        pageSize = (int) Math.max(MIN_PAGE_SIZE, Math.min(Math.min(target, limit), maxPageSize));
+    }
+}
@@ -0,0 +1,353 @@
+/*
+ * Copyright 2024 Andrew Gunnerson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.voicemail.impl.mstore;
+
+import android.annotation.NonNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+
+/**
+ * Base64 decoder optimized for large, line-wrapped payloads.
+ *
+ * The input is processed in large blocks. Each block is first compacted into an array of 6-bit
+ * values with a lookup table. Line breaks and any other bytes outside of the base64 alphabet are
+ * dropped, like {@code android.util.Base64.DEFAULT} does, without a per-byte branch by always
+ * storing the value and only advancing the output index for valid characters. The compacted
+ * values are then decoded four at a time into a reusable output buffer. Padding is rare, so it is
+ * detected with a single flag per block and only then handled by a slower path.
+ *
+ * Instances hold their buffers for reuse and are not thread-safe.
+ */
+public final class Base64BulkDecoder {
+    /** Default size of the input blocks. */
+    public static final int DEFAULT_BLOCK_SIZE = 256 * 1024;
+
+    private static final byte SKIP = -1;
+    private static final byte PAD = -2;
+
+    /** Maps each input byte to its 6-bit value or one of the special values above. */
+    private static final byte[] TABLE = new byte[256];
+
+    static {
+        Arrays.fill(TABLE, SKIP);
+
+        final var alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+        for (var i = 0; i < alphabet.length(); i++) {
+            TABLE[alphabet.charAt(i)] = (byte) i;
+        }
+
+        TABLE['='] = PAD;
+    }
+
+    private final byte[] input;
+    private final byte[] sextets;
+    private final byte[] output;
+
+    /** Number of leftover 6-bit values at the start of {@link #sextets} from the previous block. */
+    private int carry = 0;
+
+    /** Whether padding was seen. Only skipped bytes and more padding may follow. */
+    private boolean padded = false;
+
+    public Base64BulkDecoder() {
+        this(DEFAULT_BLOCK_SIZE);
+    }
+
+    public Base64BulkDecoder(int blockSize) {
+        if (blockSize < 4) {
+            throw new IllegalArgumentException("Invalid block size: " + blockSize);
+        }
+
+        input = new byte[blockSize];
+        sextets = new byte[blockSize + 3];
+        output = new byte[(blockSize + 3) / 4 * 3];
+    }
+
+    /**
+     * Reset the decoder so that it can be used for a new payload.
+     */
+    public void reset() {
+        carry = 0;
+        padded = false;
+    }
+
+    /**
+     * Compact one block of input into {@link #sextets}, after any carried over values.
+     *
+     * @return The total number of 6-bit values now in {@link #sextets}.
+     */
+    private int compact(@NonNull byte[] buf, int off, int len) throws IOException {
+        final var table = TABLE;
+        final var out = sextets;
+        var n = carry;
+        var special = 0;
+
+        if (!padded) {
+            for (var i = off; i < off + len; i++) {
+                final int v = table[buf[i] & 0xff];
+                out[n] = (byte) v;
+                // Advance only for valid values (v >= 0) without branching.
+                n += (~v >>> 31);
+                // Set the sign bit for padding (v == -2).
+                special |= v + 1;
+            }
+
+            if (special >= 0) {
+                return n;
+            }
+
+            // Redo the block carefully to find where the data ends.
+            n = carry;
+        }
+
+        for (var i = off; i < off + len; i++) {
+            final int v = table[buf[i] & 0xff];
+
+            if (v == PAD) {
+                padded = true;
+            } else if (v >= 0) {
+                if (padded) {
+                    throw new StreamCorruptedException("Base64 data after padding");
+                }
+                out[n++] = (byte) v;
+            }
+        }
+
+        return n;
+    }
+
+    /**
+     * Decode complete groups of four values into {@link #output}. Incomplete trailing values are
+     * moved to the start of {@link #sextets} for the next block.
+     *
+     * @return Number of decoded bytes.
+     */
+    private int decodeGroups(int n) {
+        final var in = sextets;
+        final var out = output;
+        final var end = n & ~3;
+        var o = 0;
+
+        for (var i = 0; i < end; i += 4) {
+            final var bits = (in[i] << 18) | (in[i + 1] << 12) | (in[i + 2] << 6) | in[i + 3];
+            out[o] = (byte) (bits >> 16);
+            out[o + 1] = (byte) (bits >> 8);
+            out[o + 2] = (byte) bits;
+            o += 3;
+        }
+
+        carry = n - end;
+        System.arraycopy(in, end, in, 0, carry);
+
+        return o;
+    }
+
+    /**
+     * Decode the trailing values at the end of the input.
+     *
+     * @return Number of decoded bytes.
+     */
+    private int decodeFinal() throws IOException {
+        final var in = sextets;
+        final var out = output;
+        final var n = carry;
+        carry = 0;
+
+        return switch (n) {
+            case 0 -> 0;
+            case 2 -> {
+                out[0] = (byte) ((in[0] << 2) | (in[1] >> 4));
+                yield 1;
+            }
+            case 3 -> {
+                final var bits = (in[0] << 12) | (in[1] << 6) | in[2];
+                out[0] = (byte) (bits >> 10);
+                out[1] = (byte) (bits >> 2);
+                yield 2;
+            }
+            default -> throw new StreamCorruptedException("Truncated base64 data");
+        };
+    }
+
+    /**
+     * Decode the next chunk of a payload that was read into the input buffer.
+     *
+     * @return Number of bytes decoded into {@link #output}.
+     */
+    private int decodeInput(int len) throws IOException {
+        return decodeGroups(compact(input, 0, len));
+    }
+
+    /**
+     * Fill the input buffer as much as possible.
+     *
+     * @return The number of bytes read or -1 on EOF.
+     */
+    private int fill(@NonNull InputStream in) throws IOException {
+        var total = 0;
+
+        while (total < input.length) {
+            final var n = in.read(input, total, input.length - total);
+            if (n < 0) {
+                return total == 0 ? -1 : total;
+            }
+            total += n;
+        }
+
+        return total;
+    }
+
+    private static void writeFully(@NonNull WritableByteChannel channel,
+            @NonNull ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Decode an entire base64 stream into a channel, such as a
+     * {@link java.nio.channels.FileChannel}. The streams are not closed.
+     *
+     * @return Number of decoded bytes.
+     */
+    public long decode(@NonNull InputStream in, @NonNull WritableByteChannel out)
+            throws IOException {
+        reset();
+
+        final var buffer = ByteBuffer.wrap(output);
+        long total = 0;
+        int n;
+
+        while ((n = fill(in)) >= 0) {
+            final var decoded = decodeInput(n);
+            buffer.clear().limit(decoded);
+            writeFully(out, buffer);
+            total += decoded;
+        }
+
+        final var decoded = decodeFinal();
+        buffer.clear().limit(decoded);
+        writeFully(out, buffer);
+
+        return total + decoded;
+    }
+
+    /**
+     * Decode an entire base64 stream into an output stream. The streams are not closed.
+     *
+     * @return Number of decoded bytes.
+     */
+    public long decode(@NonNull InputStream in, @NonNull OutputStream out) throws IOException {
+        reset();
+
+        long total = 0;
+        int n;
+
+        while ((n = fill(in)) >= 0) {
+            final var decoded = decodeInput(n);
+            out.write(output, 0, decoded);
+            total += decoded;
+        }
+
+        final var decoded = decodeFinal();
+        out.write(output, 0, decoded);
+
+        return total + decoded;
+    }
+
+    /**
+     * Wrap a base64 stream in a stream that returns the decoded data. Each underlying read
+     * requests a full block, so the wrapped stream should not be buffered again.
+     */
+    public static @NonNull InputStream wrap(@NonNull InputStream in) {
+        return new DecodingInputStream(in, new Base64BulkDecoder(64 * 1024));
+    }
+
+    private static class DecodingInputStream extends InputStream {
+        private final @NonNull InputStream in;
+        private final @NonNull Base64BulkDecoder decoder;
+        private int pos = 0;
+        private int limit = 0;
+        private boolean eof = false;
+
+        private DecodingInputStream(@NonNull InputStream in, @NonNull Base64BulkDecoder decoder) {
+            this.in = in;
+            this.decoder = decoder;
+        }
+
+        /**
+         * Decode more data into the decoder's output buffer.
+         *
+         * @return Whether any data is available.
+         */
+        private boolean refill() throws IOException {
+            while (pos == limit && !eof) {
+                pos = 0;
+
+                final var n = in.read(decoder.input, 0, decoder.input.length);
+                if (n < 0) {
+                    eof = true;
+                    limit = decoder.decodeFinal();
+                } else {
+                    limit = decoder.decodeInput(n);
+                }
+            }
+
+            return pos < limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!refill()) {
+                return -1;
+            }
+
+            return decoder.output[pos++] & 0xff;
+        }
+
+        @Override
+        public int read(@NonNull byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            } else if (!refill()) {
+                return -1;
+            }
+
+            final var n = Math.min(len, limit - pos);
+            System.arraycopy(decoder.output, pos, b, off, n);
+            pos += n;
+
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return limit - pos;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
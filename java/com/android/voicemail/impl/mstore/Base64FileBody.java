@@ -0,0 +1,106 @@
+/*
+ * Copyright 2024 Andrew Gunnerson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.voicemail.impl.mstore;
+
+import android.annotation.NonNull;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * Request body that base64 encodes the contents of a file while it is being written. The output is
+ * identical to {@code android.util.Base64.encode(data, Base64.DEFAULT)}: 76 character lines, each
+ * terminated by a single newline, including the last one.
+ *
+ * The file is read with positional reads, so the channel's position is not modified and the body
+ * can be written more than once. Only a fixed size buffer is used, regardless of the file size.
+ */
+class Base64FileBody implements MStoreRequestBody {
+    private static final int LINE_LENGTH = 76;
+    /** Number of input bytes per output line. */
+    private static final int LINE_INPUT = LINE_LENGTH / 4 * 3;
+    /** Number of input bytes to encode at a time. This is a multiple of a full line. */
+    private static final int CHUNK_SIZE = LINE_INPUT * 1024;
+
+    private static final Base64.Encoder ENCODER =
+            Base64.getMimeEncoder(LINE_LENGTH, new byte[] { '\n' });
+
+    private final @NonNull FileChannel channel;
+    private final long size;
+
+    /**
+     * Create a body for the current contents of a file. The file must not change size until the
+     * request has been sent.
+     */
+    Base64FileBody(@NonNull FileChannel channel) throws IOException {
+        this.channel = channel;
+        this.size = channel.size();
+    }
+
+    /**
+     * Get the number of bytes produced by encoding {@code size} bytes.
+     */
+    static long getEncodedLength(long size) {
+        if (size == 0) {
+            return 0;
+        }
+
+        final var encoded = Math.multiplyExact((size + 2) / 3, 4);
+        final var lines = (encoded + LINE_LENGTH - 1) / LINE_LENGTH;
+
+        return encoded + lines;
+    }
+
+    @Override
+    public long getContentLength() {
+        return getEncodedLength(size);
+    }
+
+    @Override
+    public void writeTo(@NonNull OutputStream output) throws IOException {
+        final var input = new byte[(int) Math.min(CHUNK_SIZE, size)];
+        final var buffer = ByteBuffer.wrap(input);
+        final var encoded = new byte[(int) getEncodedLength(input.length)];
+        long position = 0;
+
+        while (position < size) {
+            buffer.clear();
+            buffer.limit((int) Math.min(input.length, size - position));
+
+            while (buffer.hasRemaining()) {
+                final var n = channel.read(buffer, position + buffer.position());
+                if (n < 0) {
+                    throw new IOException("File was truncated during upload");
+                }
+            }
+
+            // A chunk always ends on a line boundary, except for the last one, so every chunk can
+            // be encoded independently.
+            final var chunk = buffer.position() == input.length
+                    ? input : Arrays.copyOf(input, buffer.position());
+            final var n = ENCODER.encode(chunk, encoded);
+            output.write(encoded, 0, n);
+            output.write('\n');
+
+            position += chunk.length;
+        }
+    }
+}
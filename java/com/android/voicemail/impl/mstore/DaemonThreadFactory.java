@@ -0,0 +1,42 @@
+/*
+ * Copyright 2024 Andrew Gunnerson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.voicemail.impl.mstore;
+
+import android.annotation.NonNull;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Thread factory for background work. The threads are daemon threads so that pending work never
+ * keeps the process alive.
+ */
+class DaemonThreadFactory implements ThreadFactory {
+    private final @NonNull String prefix;
+    private final @NonNull AtomicInteger counter = new AtomicInteger(0);
+
+    DaemonThreadFactory(@NonNull String prefix) {
+        this.prefix = prefix;
+    }
+
+    @Override
+    public @NonNull Thread newThread(@NonNull Runnable runnable) {
+        final var thread = new Thread(runnable, prefix + "-" + counter.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    }
+}
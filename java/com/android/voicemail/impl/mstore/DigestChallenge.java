@@ -0,0 +1,181 @@
+/*
+ * Copyright 2024 Andrew Gunnerson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.voicemail.impl.mstore;
+
+import android.annotation.NonNull;
+import android.util.Pair;
+
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A validated HTTP digest auth challenge from a WWW-Authenticate header. Only the 3GPP-GBA flavor
+ * of HTTP digest auth is supported. A challenge can be used to authorize multiple requests. Each
+ * use increments the nonce count, as required when reusing a nonce.
+ */
+class DigestChallenge {
+    /** Challenge parameters that must not be echoed back in the Authorization header. */
+    private static final String PARAM_STALE = "stale";
+
+    private final @NonNull HashMap<String, String> params;
+    private final @NonNull String algorithm;
+    private final @NonNull String qop;
+    private final @NonNull String realm;
+    private final @NonNull String nonce;
+    private final boolean stale;
+    private final @NonNull AtomicInteger nonceCount = new AtomicInteger(0);
+
+    private DigestChallenge(@NonNull HashMap<String, String> params, @NonNull String algorithm,
+            @NonNull String qop, @NonNull String realm, @NonNull String nonce, boolean stale) {
+        this.params = params;
+        this.algorithm = algorithm;
+        this.qop = qop;
+        this.realm = realm;
+        this.nonce = nonce;
+        this.stale = stale;
+    }
+
+    /**
+     * Parse and validate the digest challenge from a WWW-Authenticate header value.
+     *
+     * @param url Only used for error messages.
+     */
+    static @NonNull DigestChallenge parse(@NonNull URL url, @NonNull String wwwAuthenticate)
+            throws MStoreException {
+        final HashMap<String, HashMap<String, String>> parsed;
+        try {
+            parsed = WwwAuthenticate.parse(wwwAuthenticate);
+        } catch (IllegalArgumentException e) {
+            throw new MStoreException(url + ": Invalid WWW-Authenticate header: " + wwwAuthenticate,
+                    e);
+        }
+
+        final var digestParams = parsed.get("Digest");
+        if (digestParams == null) {
+            throw new MStoreException(url + ": Digest auth not supported: " + parsed.keySet());
+        }
+
+        final var algorithm = digestParams.getOrDefault("algorithm", "MD5");
+        if (!"MD5".equals(algorithm)) {
+            throw new MStoreException(url + ": Digest: Unsupported algorithm: " + algorithm);
+        }
+
+        final var qop = digestParams.getOrDefault("qop", "auth");
+        if (!"auth".equals(qop)) {
+            throw new MStoreException(url + ": Digest: Unsupported qop: " + qop);
+        }
+
+        final var realm = digestParams.get("realm");
+        if (realm == null) {
+            throw new MStoreException(url + ": Digest: Missing realm");
+        }
+
+        final var nonce = digestParams.get("nonce");
+        if (nonce == null) {
+            throw new MStoreException(url + ": Digest: Missing nonce");
+        }
+
+        final var staleValue = digestParams.remove(PARAM_STALE);
+        final var stale = staleValue != null
+                && "true".equals(staleValue.toLowerCase(Locale.ENGLISH));
+
+        return new DigestChallenge(digestParams, algorithm, qop, realm, nonce, stale);
+    }
+
+    /**
+     * Whether the server indicated that the previous nonce was valid, but expired. When this is
+     * set, the credentials used for the rejected request were correct.
+     */
+    boolean isStale() {
+        return stale;
+    }
+
+    /**
+     * Compute the lowercase hex digest of the specified string encoded as ASCII. Currently, only
+     * MD5 is supported because support for SHA-256 in HTTP digest auth is, in general, extremely
+     * limited. It is definitely not supported by the mstore backend.
+     */
+    private static @NonNull String computeHexDigest(@NonNull String algorithm,
+            @NonNull String asciiData) throws NoSuchAlgorithmException {
+        if (!"MD5".equals(algorithm)) {
+            throw new NoSuchAlgorithmException("Unsupported digest algorithm: " + algorithm);
+        }
+
+        final var md = MessageDigest.getInstance(algorithm);
+        final var data = asciiData.getBytes(StandardCharsets.US_ASCII);
+
+        md.update(data);
+
+        return HexFormat.of().formatHex(md.digest());
+    }
+
+    /**
+     * Generate a random hex string for use with the HTTP digest auth cnonce parameter.
+     */
+    private static @NonNull String generateHexCnonce() {
+        final var random = new SecureRandom();
+        final var data = new byte[16];
+
+        random.nextBytes(data);
+
+        return HexFormat.of().formatHex(data);
+    }
+
+    /**
+     * Compute the Authorization header value for a request. Every call uses the next nonce count.
+     *
+     * @param method HTTP method of the request to authorize.
+     * @param uri Request URL. This must not be URL-encoded.
+     * @param credentials The username and password from GBA bootstrapping.
+     *
+     * @throws IllegalArgumentException if the header value cannot be formatted.
+     */
+    @NonNull
+    String authorize(@NonNull String method, @NonNull String uri,
+            @NonNull Pair<String, String> credentials) {
+        final var cnonce = generateHexCnonce();
+        final var nc = String.format(Locale.ROOT, "%08x", nonceCount.incrementAndGet());
+
+        final var authParams = new HashMap<>(params);
+        authParams.put("username", credentials.first);
+        authParams.put("uri", uri);
+        authParams.put("cnonce", cnonce);
+        authParams.put("nc", nc);
+
+        try {
+            final var ha1 = computeHexDigest(algorithm,
+                    credentials.first + ":" + realm + ":" + credentials.second);
+            final var ha2 = computeHexDigest(algorithm, method + ":" + uri);
+            final var digestResponse = computeHexDigest(algorithm,
+                    ha1 + ":" + nonce + ":" + nc + ":" + cnonce + ":" + qop + ":" + ha2);
+
+            authParams.put("response", digestResponse);
+        } catch (NoSuchAlgorithmException e) {
+            // There is no version of Android that doesn't support MD5.
+            throw new IllegalStateException(e);
+        }
+
+        return WwwAuthenticate.format("Digest", authParams);
+    }
+}
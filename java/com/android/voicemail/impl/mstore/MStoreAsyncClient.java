@@ -0,0 +1,279 @@
+/*
+ * Copyright 2024 Andrew Gunnerson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.voicemail.impl.mstore;
+
+import android.annotation.NonNull;
+import android.annotation.Nullable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Executor-based wrapper around the blocking {@link MStoreClient}. Every operation returns a
+ * {@link CompletableFuture} that completes with the result or fails with the same
+ * {@link MStoreException} or {@link IOException} that the blocking method would have thrown.
+ *
+ * This is not end-to-end asynchronous I/O. Each operation simply calls the blocking method on an
+ * {@link Executor} and occupies one of its threads for the entire duration, including any time
+ * spent waiting for a GBA bootstrap. By default, the executor is a small bounded pool of daemon
+ * threads, so issuing many operations at once queues them instead of creating a thread per request.
+ * ART does not support virtual threads, but on runtimes that do, a virtual thread executor can be
+ * passed in instead.
+ *
+ * Cancelling a returned future before the operation starts prevents it from running. Once it has
+ * started, cancellation only completes the future; the in-flight HTTP exchange or GBA bootstrap is
+ * not aborted and runs to completion on the executor thread, with its result discarded. Discarded
+ * results that hold resources, like the stream from {@link #downloadObject(MStoreObject)}, are
+ * closed.
+ */
+public class MStoreAsyncClient implements AutoCloseable {
+    /**
+     * Default number of concurrent operations. GBA bootstrapping is serialized by the ISIM, so
+     * there is little benefit in going higher.
+     */
+    public static final int DEFAULT_PARALLELISM = 4;
+
+    private static final long IDLE_TIMEOUT_SECONDS = 30;
+
+    private final @NonNull MStoreClient client;
+    private final @NonNull Executor executor;
+    private final @Nullable ExecutorService ownedExecutor;
+
+    /**
+     * A blocking mstore operation.
+     */
+    private interface Operation<T> {
+        T run() throws MStoreException, IOException;
+    }
+
+    /**
+     * Create a wrapper with a bounded pool of {@link #DEFAULT_PARALLELISM} threads.
+     */
+    public MStoreAsyncClient(@NonNull MStoreClient client) {
+        this(client, DEFAULT_PARALLELISM);
+    }
+
+    /**
+     * Create a wrapper with a bounded pool of threads.
+     *
+     * @param parallelism Maximum number of operations that run concurrently.
+     */
+    public MStoreAsyncClient(@NonNull MStoreClient client, int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Invalid parallelism: " + parallelism);
+        }
+
+        final var pool = new ThreadPoolExecutor(parallelism, parallelism, IDLE_TIMEOUT_SECONDS,
+                TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                new DaemonThreadFactory("mstore-async"));
+        pool.allowCoreThreadTimeOut(true);
+
+        this.client = client;
+        this.executor = pool;
+        this.ownedExecutor = pool;
+    }
+
+    /**
+     * Create a wrapper that runs operations on the specified executor. The executor
+     * is not shut down by {@link #close()}.
+     */
+    public MStoreAsyncClient(@NonNull MStoreClient client, @NonNull Executor executor) {
+        this.client = client;
+        this.executor = executor;
+        this.ownedExecutor = null;
+    }
+
+    /**
+     * The underlying blocking client.
+     */
+    public @NonNull MStoreClient getClient() {
+        return client;
+    }
+
+    private <T> @NonNull CompletableFuture<T> submit(@NonNull Operation<T> operation) {
+        final var future = new CompletableFuture<T>();
+
+        try {
+            executor.execute(() -> {
+                if (future.isDone()) {
+                    // Cancelled before it had a chance to run.
+                    return;
+                }
+
+                final T result;
+                try {
+                    result = operation.run();
+                } catch (Throwable e) {
+                    future.completeExceptionally(e);
+                    return;
+                }
+
+                if (!future.complete(result) && result instanceof Closeable closeable) {
+                    // Nobody will ever see the result, so release it here.
+                    try {
+                        closeable.close();
+                    } catch (IOException e) {
+                        // The connection is discarded either way.
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+        }
+
+        return future;
+    }
+
+    /**
+     * See {@link MStoreClient#getProfile()}.
+     */
+    public @NonNull CompletableFuture<MStoreProfile> getProfile() {
+        return submit(client::getProfile);
+    }
+
+    /**
+     * See {@link MStoreClient#updateProfile(MStoreProfile)}.
+     */
+    public @NonNull CompletableFuture<Void> updateProfile(@NonNull MStoreProfile profile) {
+        return submit(() -> {
+            client.updateProfile(profile);
+            return null;
+        });
+    }
+
+    /**
+     * See {@link MStoreClient#getQuota(String)}.
+     */
+    public @NonNull CompletableFuture<MStoreQuota> getQuota(@NonNull String folder) {
+        return submit(() -> client.getQuota(folder));
+    }
+
+    /**
+     * See {@link MStoreClient#getObject(String)}.
+     */
+    public @NonNull CompletableFuture<MStoreObject> getObject(@NonNull String objectPath) {
+        return submit(() -> client.getObject(objectPath));
+    }
+
+    /**
+     * See {@link MStoreClient#getFolderObjects(String)}.
+     */
+    public @NonNull CompletableFuture<ArrayList<MStoreObject>> getFolderObjects(
+            @NonNull String folder) {
+        return submit(() -> client.getFolderObjects(folder));
+    }
+
+    /**
+     * See {@link MStoreClient#setFlag(String, String, boolean)}.
+     */
+    public @NonNull CompletableFuture<Void> setFlag(@NonNull String objectPath,
+            @NonNull String flag, boolean value) {
+        return submit(() -> {
+            client.setFlag(objectPath, flag, value);
+            return null;
+        });
+    }
+
+    /**
+     * See {@link MStoreClient#bulkSetFlag(List, List, boolean)}.
+     */
+    public @NonNull CompletableFuture<Void> bulkSetFlag(@NonNull List<String> objectPaths,
+            @NonNull List<String> flags, boolean value) {
+        return submit(() -> {
+            client.bulkSetFlag(objectPaths, flags, value);
+            return null;
+        });
+    }
+
+    /**
+     * See {@link MStoreClient#bulkSetFlag(List, List, boolean, MStoreBulkOptions)}.
+     */
+    public @NonNull CompletableFuture<MStoreBulkResult> bulkSetFlag(
+            @NonNull List<String> objectPaths, @NonNull List<String> flags, boolean value,
+            @NonNull MStoreBulkOptions options) {
+        return submit(() -> client.bulkSetFlag(objectPaths, flags, value, options));
+    }
+
+    /**
+     * See {@link MStoreClient#bulkDelete(List)}.
+     */
+    public @NonNull CompletableFuture<Void> bulkDelete(@NonNull List<String> objectPaths) {
+        return submit(() -> {
+            client.bulkDelete(objectPaths);
+            return null;
+        });
+    }
+
+    /**
+     * See {@link MStoreClient#bulkDelete(List, MStoreBulkOptions)}.
+     */
+    public @NonNull CompletableFuture<MStoreBulkResult> bulkDelete(
+            @NonNull List<String> objectPaths, @NonNull MStoreBulkOptions options) {
+        return submit(() -> client.bulkDelete(objectPaths, options));
+    }
+
+    /**
+     * See {@link MStoreClient#downloadObject(MStoreObject)}. The future completes once the response
+     * headers are received. Reading the returned stream is still blocking.
+     */
+    public @NonNull CompletableFuture<InputStream> downloadObject(@NonNull MStoreObject object) {
+        return submit(() -> client.downloadObject(object));
+    }
+
+    /**
+     * See {@link MStoreClient#uploadObject(String, MStoreObject, byte[])}.
+     */
+    public @NonNull CompletableFuture<Void> uploadObject(@NonNull String folder,
+            @NonNull MStoreObject object, @NonNull byte[] data) {
+        return submit(() -> {
+            client.uploadObject(folder, object, data);
+            return null;
+        });
+    }
+
+    /**
+     * See {@link MStoreClient#uploadObject(String, MStoreObject, FileChannel)}.
+     */
+    public @NonNull CompletableFuture<Void> uploadObject(@NonNull String folder,
+            @NonNull MStoreObject object, @NonNull FileChannel data) {
+        return submit(() -> {
+            client.uploadObject(folder, object, data);
+            return null;
+        });
+    }
+
+    /**
+     * Shut down the thread pool if it was created by this instance. Operations that have already
+     * been submitted will still run to completion.
+     */
+    @Override
+    public void close() {
+        if (ownedExecutor != null) {
+            ownedExecutor.shutdown();
+        }
+    }
+}
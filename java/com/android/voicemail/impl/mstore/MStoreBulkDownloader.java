@@ -0,0 +1,178 @@
+/*
+ * Copyright 2024 Andrew Gunnerson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.voicemail.impl.mstore;
+
+import android.annotation.NonNull;
+import android.annotation.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.LinkedHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Downloads the payloads of many objects in a folder concurrently.
+ *
+ * The folder is listed on the calling thread while the downloads run in the background, so the
+ * first downloads start before the listing is complete. At most {@code parallelism} downloads run
+ * at the same time. Listing pauses while all download slots are in use, so memory usage does not
+ * depend on the size of the folder.
+ *
+ * Each payload is downloaded with {@link MStoreClient#downloadObject(MStoreObject, File)}, so an
+ * interrupted download never leaves a truncated file behind and running the same bulk download
+ * again resumes the incomplete payloads.
+ */
+public class MStoreBulkDownloader {
+    /**
+     * Notified as downloads complete. Called from background threads, but never concurrently.
+     */
+    public interface Listener {
+        void onDownloaded(@NonNull MStoreObject object, @NonNull File file, long bytes);
+
+        default void onFailed(@NonNull MStoreObject object, @NonNull Exception e) {}
+    }
+
+    /**
+     * Summary of a bulk download.
+     */
+    public static class Result {
+        /** Number of payloads that were downloaded successfully. */
+        public int downloaded;
+
+        /** Total number of payload bytes written. */
+        public long bytes;
+
+        /** Wall clock time for listing and downloading everything. */
+        public long elapsedNanos;
+
+        /** Errors for failed downloads, keyed by object path. */
+        @NonNull
+        public LinkedHashMap<String, Exception> failures = new LinkedHashMap<>();
+
+        /** Aggregate throughput across all concurrent downloads. */
+        public double getBytesPerSecond() {
+            return elapsedNanos > 0 ? bytes * 1e9 / elapsedNanos : 0;
+        }
+    }
+
+    private final @NonNull MStoreClient client;
+    private final int parallelism;
+    private final @NonNull Executor executor;
+
+    /**
+     * @param parallelism Maximum number of concurrent downloads.
+     */
+    public MStoreBulkDownloader(@NonNull MStoreClient client, int parallelism) {
+        this(client, parallelism, client.getBackgroundExecutor());
+    }
+
+    /**
+     * @param parallelism Maximum number of concurrent downloads.
+     * @param executor Executor for running the downloads. It must be able to run at least
+     *                 {@code parallelism} tasks concurrently.
+     */
+    public MStoreBulkDownloader(@NonNull MStoreClient client, int parallelism,
+            @NonNull Executor executor) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Invalid parallelism: " + parallelism);
+        }
+
+        this.client = client;
+        this.parallelism = parallelism;
+        this.executor = executor;
+    }
+
+    /**
+     * Download the payloads of all objects in a folder that match a filter. Failures of individual
+     * downloads are reported in the result instead of aborting the remaining downloads.
+     *
+     * @param filter Only objects matching this predicate are downloaded.
+     * @param destination Returns the output file for an object.
+     * @throws MStoreException if listing the folder fails. Downloads that were already started are
+     *                         allowed to finish first.
+     */
+    public @NonNull Result downloadAll(@NonNull String folder,
+            @NonNull Predicate<MStoreObject> filter,
+            @NonNull Function<MStoreObject, File> destination, @Nullable Listener listener)
+            throws MStoreException, IOException {
+        final var result = new Result();
+        final var slots = new Semaphore(parallelism);
+        final var start = System.nanoTime();
+
+        final var options = new MStoreListOptions();
+        options.adaptivePageSize = true;
+        options.prefetchDepth = 1;
+
+        try (var iterator = client.listFolder(folder, options)) {
+            while (iterator.hasNext()) {
+                final var object = iterator.next();
+                if (object.payloadPath == null || !filter.test(object)) {
+                    continue;
+                }
+
+                final var file = destination.apply(object);
+
+                slots.acquireUninterruptibly();
+
+                try {
+                    executor.execute(() -> {
+                        try {
+                            final var bytes = client.downloadObject(object, file);
+
+                            synchronized (result) {
+                                result.downloaded++;
+                                result.bytes += bytes;
+                                if (listener != null) {
+                                    listener.onDownloaded(object, file, bytes);
+                                }
+                            }
+                        } catch (Exception e) {
+                            synchronized (result) {
+                                result.failures.put(object.objectPath, e);
+                                if (listener != null) {
+                                    listener.onFailed(object, e);
+                                }
+                            }
+                        } finally {
+                            slots.release();
+                        }
+                    });
+                } catch (RuntimeException e) {
+                    slots.release();
+                    throw e;
+                }
+            }
+        } catch (UncheckedMStoreException e) {
+            throw e.getCause();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            // Wait for the in-flight downloads.
+            slots.acquireUninterruptibly(parallelism);
+            slots.release(parallelism);
+        }
+
+        synchronized (result) {
+            result.elapsedNanos = System.nanoTime() - start;
+            return result;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2024 Andrew Gunnerson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.voicemail.impl.mstore;
+
+import android.annotation.Nullable;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Options for bulk updates and deletions. The defaults match the behavior of
+ * {@link MStoreClient#bulkSetFlag(java.util.List, java.util.List, boolean)} and
+ * {@link MStoreClient#bulkDelete(java.util.List)}.
+ */
+public class MStoreBulkOptions {
+    /** Default maximum number of objects per request. */
+    public static final int DEFAULT_BATCH_SIZE = 100;
+
+    /** Default maximum number of requests in flight. */
+    public static final int DEFAULT_CONCURRENCY = 4;
+
+    /** Default number of times to retry transient failures. */
+    public static final int DEFAULT_MAX_RETRIES = 2;
+
+    /** Default delay before the first retry. */
+    public static final long DEFAULT_RETRY_DELAY_MS = 1000;
+
+    /**
+     * Maximum number of objects per request. Larger inputs are split into several requests. The
+     * server does not document a limit, but very large requests take a long time to process and
+     * are more likely to be cut off by the relay.
+     */
+    public int batchSize = DEFAULT_BATCH_SIZE;
+
+    /**
+     * Maximum number of requests that are sent at the same time when the input is split into
+     * several batches. Set to 1 to send the batches one after another on the calling thread.
+     */
+    public int concurrency = DEFAULT_CONCURRENCY;
+
+    /**
+     * Number of times to retry a batch if the request fails with an I/O error or if the server
+     * reports a transient (5xx) failure for some objects. Only the objects that failed transiently
+     * are included in the retry. Set to 0 to disable retries.
+     */
+    public int maxRetries = DEFAULT_MAX_RETRIES;
+
+    /**
+     * Delay before the first retry of a batch. The delay doubles for each subsequent retry.
+     */
+    public long retryDelayMs = DEFAULT_RETRY_DELAY_MS;
+
+    /**
+     * Executor for sending the batches. If null, the client's shared background threads are used.
+     */
+    @Nullable
+    public Executor executor;
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2024 Andrew Gunnerson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.voicemail.impl.mstore;
+
+import android.annotation.NonNull;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Applies a bulk update or deletion to every object in a folder that matches a predicate.
+ *
+ * The folder is listed on the calling thread and the paths of all matching objects are collected
+ * before anything is modified. The server's search cursors are not guaranteed to be stable when
+ * objects from pages that have already been returned are deleted or stop matching the search
+ * criteria, so mutating while paging through the same cursor could skip matches. Once listing is
+ * complete, the paths are split into batches of {@link MStoreBulkOptions#batchSize} and sent with
+ * at most {@link MStoreBulkOptions#concurrency} requests in flight. Only the paths are kept in
+ * memory, not the objects.
+ */
+public class MStoreBulkPipeline {
+    /**
+     * The bulk operation to apply to the matching objects.
+     */
+    private interface BatchOperation {
+        @NonNull
+        MStoreBulkResult run(@NonNull List<String> objectPaths,
+                @NonNull MStoreBulkOptions options) throws MStoreException, IOException;
+    }
+
+    /**
+     * Summary of a pipeline run.
+     */
+    public static class Result {
+        /** Number of objects that were listed, after any filtering done by the search. */
+        public int listed;
+
+        /** Number of objects that matched the predicate. */
+        public int matched;
+
+        /** Combined per-object results of all batches, in the order that objects were listed. */
+        @NonNull
+        public MStoreBulkResult bulkResult = new MStoreBulkResult();
+
+        /** Wall clock time for listing and updating everything. */
+        public long elapsedNanos;
+    }
+
+    private final @NonNull MStoreClient client;
+    private final @NonNull MStoreBulkOptions options;
+
+    /**
+     * @param options Batch size, concurrency, and retry behavior. The executor must be able to
+     *                run at least {@link MStoreBulkOptions#concurrency} tasks concurrently.
+     */
+    public MStoreBulkPipeline(@NonNull MStoreClient client, @NonNull MStoreBulkOptions options) {
+        if (options.batchSize < 1) {
+            throw new IllegalArgumentException("Invalid batch size: " + options.batchSize);
+        } else if (options.concurrency < 1) {
+            throw new IllegalArgumentException("Invalid concurrency: " + options.concurrency);
+        }
+
+        this.client = client;
+        this.options = options;
+    }
+
+    /**
+     * Delete every object in a folder that matches a predicate.
+     *
+     * @throws MStoreException if listing the folder fails. Nothing is modified in that case.
+     *                         Failures for individual objects and batches are reported in the
+     *                         result instead.
+     */
+    public @NonNull Result delete(@NonNull String folder, @NonNull Predicate<MStoreObject> filter)
+            throws MStoreException, IOException {
+        return run(new MStoreSearchCriteria(folder), filter, client::bulkDelete);
+    }
+
+    /**
+     * Like {@link #delete(String, Predicate)}, but the objects are selected with search criteria,
+     * which are evaluated by the server if possible.
+     */
+    public @NonNull Result delete(@NonNull MStoreSearchCriteria criteria)
+            throws MStoreException, IOException {
+        return run(criteria, o -> true, client::bulkDelete);
+    }
+
+    /**
+     * Set or clear flags on every object in a folder that matches a predicate. This is not
+     * compatible with {@link MStoreClient#FLAG_GREETING_ACTIVE}.
+     *
+     * @throws MStoreException if listing the folder fails. Nothing is modified in that case.
+     *                         Failures for individual objects and batches are reported in the
+     *                         result instead.
+     */
+    public @NonNull Result setFlag(@NonNull String folder, @NonNull Predicate<MStoreObject> filter,
+            @NonNull List<String> flags, boolean value) throws MStoreException, IOException {
+        return run(new MStoreSearchCriteria(folder), filter, (objectPaths, batchOptions) ->
+                client.bulkSetFlag(objectPaths, flags, value, batchOptions));
+    }
+
+    /**
+     * Like {@link #setFlag(String, Predicate, List, boolean)}, but the objects are selected with
+     * search criteria, which are evaluated by the server if possible.
+     */
+    public @NonNull Result setFlag(@NonNull MStoreSearchCriteria criteria,
+            @NonNull List<String> flags, boolean value) throws MStoreException, IOException {
+        return run(criteria, o -> true, (objectPaths, batchOptions) ->
+                client.bulkSetFlag(objectPaths, flags, value, batchOptions));
+    }
+
+    private @NonNull Result run(@NonNull MStoreSearchCriteria criteria,
+            @NonNull Predicate<MStoreObject> filter, @NonNull BatchOperation operation)
+            throws MStoreException, IOException {
+        final var result = new Result();
+        final var matches = new ArrayList<String>();
+        final var start = System.nanoTime();
+
+        final var listOptions = new MStoreListOptions();
+        listOptions.adaptivePageSize = true;
+        listOptions.prefetchDepth = 1;
+
+        try (var iterator = client.search(criteria, listOptions)) {
+            while (iterator.hasNext()) {
+                final var object = iterator.next();
+                result.listed++;
+
+                if (object.objectPath != null && filter.test(object)) {
+                    matches.add(object.objectPath);
+                }
+            }
+        } catch (UncheckedMStoreException e) {
+            throw e.getCause();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        result.matched = matches.size();
+
+        if (!matches.isEmpty()) {
+            result.bulkResult = operation.run(matches, options);
+        }
+
+        result.elapsedNanos = System.nanoTime() - start;
+        return result;
+    }
+}
@@ -36,6 +36,15 @@ public class MStoreBulkResponseItem {
     @NonNull
     public String objectPath;
 
+    /**
+     * Create an instance for an object that the server did not return a usable response for.
+     */
+    public MStoreBulkResponseItem(@NonNull String objectPath, int code, @NonNull String reason) {
+        this.code = code;
+        this.reason = reason;
+        this.objectPath = objectPath;
+    }
+
     public MStoreBulkResponseItem(@NonNull JSONObject data) throws JSONException {
         this.code = data.getInt("code");
         this.reason = data.getString("reason");
@@ -56,4 +65,19 @@ public class MStoreBulkResponseItem {
             throw new JSONException("Neither success nor failure found: " + data);
         }
     }
+
+    /**
+     * Whether the operation succeeded for this object.
+     */
+    public boolean isSuccess() {
+        return code / 100 == 2;
+    }
+
+    /**
+     * Whether the operation failed for this object due to a server-side error that may go away if
+     * the operation is retried.
+     */
+    public boolean isTransientFailure() {
+        return code / 100 == 5;
+    }
 }
@@ -31,6 +31,11 @@ public class MStoreBulkResponseList {
     @NonNull
     public ArrayList<MStoreBulkResponseItem> responses = new ArrayList<>();
 
+    /**
+     * Create an empty instance. This is used when merging the responses of several requests.
+     */
+    public MStoreBulkResponseList() {}
+
     public MStoreBulkResponseList(@NonNull JSONObject data) throws JSONException {
         final var bulkResponseList = data.getJSONObject("bulkResponseList");
         final var response = bulkResponseList.getJSONArray("response");
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2024 Andrew Gunnerson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.voicemail.impl.mstore;
+
+import android.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * The outcome of a bulk update or delete for each individual object. If a request was retried,
+ * the response from the last attempt is reported for each object. If the requests for a batch
+ * failed entirely, its objects are reported in {@link #errors} instead and the other batches are
+ * unaffected.
+ */
+public class MStoreBulkResult {
+    /** Response for each object, in the order that the objects were specified. */
+    @NonNull
+    public LinkedHashMap<String, MStoreBulkResponseItem> items = new LinkedHashMap<>();
+
+    /** Objects that the server did not return a response for. */
+    @NonNull
+    public ArrayList<String> missing = new ArrayList<>();
+
+    /**
+     * Objects whose batch failed entirely, even after retries, along with the error. It is unknown
+     * whether the operation was applied to these objects.
+     */
+    @NonNull
+    public LinkedHashMap<String, Exception> errors = new LinkedHashMap<>();
+
+    /** Total number of requests sent, including retries. */
+    public int requests;
+
+    /**
+     * Whether the operation succeeded for every object.
+     */
+    public boolean isSuccess() {
+        return missing.isEmpty() && errors.isEmpty()
+                && items.values().stream().allMatch(MStoreBulkResponseItem::isSuccess);
+    }
+
+    /**
+     * Get the paths of the objects that the operation succeeded for.
+     */
+    public @NonNull List<String> getSucceeded() {
+        return items.entrySet()
+                .stream()
+                .filter(e -> e.getValue().isSuccess())
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Get the paths of the objects that the operation failed for, including the objects that the
+     * server did not return a response for and the objects whose batch failed entirely.
+     */
+    public @NonNull List<String> getFailed() {
+        final var failed = items.entrySet()
+                .stream()
+                .filter(e -> !e.getValue().isSuccess())
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toList());
+        failed.addAll(missing);
+        failed.addAll(errors.keySet());
+        return failed;
+    }
+
+    /**
+     * Throw if the operation failed for any object.
+     */
+    public void throwIfFailed() throws MStoreException {
+        final var failures = items.values()
+                .stream()
+                .filter(r -> !r.isSuccess())
+                .map(r -> r.objectPath + " (" + r.code + " " + r.reason + ")")
+                .collect(Collectors.toCollection(ArrayList::new));
+        for (var objectPath : missing) {
+            failures.add(objectPath + " (no response)");
+        }
+        for (var entry : errors.entrySet()) {
+            failures.add(entry.getKey() + " (" + entry.getValue() + ")");
+        }
+
+        if (!failures.isEmpty()) {
+            final var exception = new MStoreException(
+                    "Bulk request failed for: " + String.join(", ", failures));
+            errors.values().stream().distinct().forEach(exception::addSuppressed);
+            throw exception;
+        }
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2024 Andrew Gunnerson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.voicemail.impl.mstore;
+
+/**
+ * Options for caching responses in memory. By default, nothing is cached, which matches the
+ * behavior of a new {@link MStoreClient}.
+ *
+ * Cached entries are invalidated when the client itself changes the underlying data. The profile
+ * is invalidated by {@link MStoreClient#updateProfile(MStoreProfile)}, and the quotas are
+ * invalidated by uploads, deletions, and flag changes. Changes made elsewhere, like a new voicemail
+ * arriving, are only picked up once the entry expires or {@link MStoreClient#invalidateCache()} is
+ * called.
+ */
+public class MStoreCacheOptions {
+    /**
+     * Time that the result of {@link MStoreClient#getProfile()} is cached for. Set to 0 to disable
+     * caching.
+     */
+    public long profileTtlMs = 0;
+
+    /**
+     * Time that the result of {@link MStoreClient#getQuota(String)} is cached for, per folder. Set
+     * to 0 to disable caching.
+     */
+    public long quotaTtlMs = 0;
+
+    /**
+     * Time after an entry expires during which it is still returned immediately, while a fresh
+     * copy is requested in the background (stale-while-revalidate). Once the refresh completes,
+     * later calls get the new data. If the refresh fails, the stale entry continues to be returned
+     * until this window ends. Set to 0 to always wait for a fresh copy once an entry has expired.
+     */
+    public long maxStaleMs = 0;
+}
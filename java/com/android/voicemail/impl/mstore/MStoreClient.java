@@ -26,34 +26,46 @@ import android.telephony.TelephonyManager.BootstrapAuthenticationCallback;
 import android.telephony.gba.TlsParams;
 import android.telephony.gba.UaSecurityProtocolIdentifier;
 import android.util.Base64;
-import android.util.Base64InputStream;
+import android.util.JsonReader;
 import android.util.Pair;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.HttpURLConnection;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
 import java.net.URL;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-import java.security.SecureRandom;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.HexFormat;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
 import java.util.regex.Pattern;
-import java.util.stream.Collectors;
 
 /**
- * Main entrypoint for interacting with the mstore API.
+ * Main entrypoint for interacting with the mstore API. All methods are blocking, but the client is
+ * thread-safe and can be used from multiple threads at once. See {@link MStoreAsyncClient} for a
+ * {@link CompletableFuture}-based API.
  */
 public class MStoreClient {
     /**
@@ -70,9 +82,6 @@ public class MStoreClient {
      */
     private static final Pattern RE_OBJECT_PATH = Pattern.compile("^.*/objects/(.+)$");
 
-    private static final int TIMEOUT_CONNECT_MS = 10 * 1000;
-    private static final int TIMEOUT_READ_MS = 60 * 1000;
-
     /**
      * Production base URL for the API. The staging instance is wsg2.stg.sip.t-mobile.com.
      */
@@ -88,6 +97,15 @@ public class MStoreClient {
 
     private static final String CONTENT_TYPE_JSON = "application/json";
 
+    /**
+     * Bodies larger than this are not sent with a cached challenge if the server is known to
+     * accept body-less probes. If the nonce turned out to be stale, the whole body would have been
+     * sent for nothing, which costs more than the probe's round trip.
+     */
+    private static final long PREEMPTIVE_AUTH_MAX_BODY = 64 * 1024;
+
+    private static final MStoreRequestBody EMPTY_BODY = MStoreRequestBody.of(new byte[0]);
+
     /**
      * UUID of the folder containing voicemails. Uploads to this folder are not permitted.
      */
@@ -123,23 +141,129 @@ public class MStoreClient {
     public static final String FLAG_GREETING_ACTIVE = "$CNS-Greeting-On";
 
     private final @NonNull TelephonyManager manager;
-    private final @NonNull Network network;
+    private final @NonNull MStoreTransport transport;
     private final @NonNull String msisdnUri;
 
+    /** Shared threads for background work, like prefetching. Created on first use. */
+    private @Nullable ExecutorService backgroundExecutor;
+
+    /** Most recent digest auth challenge for each protection space, for preemptive auth. */
+    private final @NonNull ConcurrentHashMap<String, DigestChallenge> challenges =
+            new ConcurrentHashMap<>();
+
     /**
-     * Create a new mstore API client.
+     * Protection spaces where the server rejected a reused nonce without marking it as stale.
+     * Preemptive auth is not attempted there anymore, since every request would otherwise cost an
+     * extra round trip and an extra GBA bootstrap.
+     */
+    private final @NonNull Set<String> preemptiveAuthRejected = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Whether the server returns a challenge for an unauthenticated request whose body has been
+     * left out, keyed by {@link #getProbeKey(URL, String)}. Missing entries have not been tried
+     * yet.
+     */
+    private final @NonNull ConcurrentHashMap<String, Boolean> bodylessProbes =
+            new ConcurrentHashMap<>();
+
+    /**
+     * In-flight GET requests, keyed by URL and cache generation, so that concurrent identical
+     * reads share one request and one GBA bootstrap.
+     */
+    private final @NonNull SingleFlight<String, JSONObject> getFlights = new SingleFlight<>();
+
+    /** Cached GET responses, keyed by URL. */
+    private final @NonNull ResponseCache<JSONObject> responseCache = new ResponseCache<>();
+
+    /** Which responses to cache and for how long. */
+    private volatile @NonNull MStoreCacheOptions cacheOptions = new MStoreCacheOptions();
+
+    /** Receives the timings of every request (if set). */
+    private volatile @Nullable MStoreTimingListener timingListener;
+
+    /**
+     * Create a new mstore API client that uses {@link MStoreUrlConnectionTransport}.
      *
      * @param manager Used to obtain the MSISDN.
      * @param network All API calls are performed on this network.
      */
     public MStoreClient(@NonNull TelephonyManager manager, @NonNull Network network) {
+        this(manager, new MStoreUrlConnectionTransport(network));
+    }
+
+    /**
+     * Create a new mstore API client.
+     *
+     * @param manager Used to obtain the MSISDN and to perform GBA bootstrapping.
+     * @param transport All API calls are sent via this transport.
+     */
+    public MStoreClient(@NonNull TelephonyManager manager, @NonNull MStoreTransport transport) {
         this.manager = manager;
-        this.network = network;
+        this.transport = transport;
 
         // This does not use Uri.fromParts() because otherwise, the + would be double encoded.
         this.msisdnUri = Uri.encode(PhoneAccount.SCHEME_TEL + ":+" + manager.getLine1Number());
     }
 
+    /**
+     * Get the shared executor for background work. The threads are daemon threads and exit when
+     * idle, so the client never needs to be explicitly closed.
+     */
+    synchronized @NonNull Executor getBackgroundExecutor() {
+        if (backgroundExecutor == null) {
+            backgroundExecutor = Executors.newCachedThreadPool(
+                    new DaemonThreadFactory("mstore-background"));
+        }
+
+        return backgroundExecutor;
+    }
+
+    /**
+     * Set which responses are cached in memory and for how long. The options must not be modified
+     * afterwards. Existing cache entries are kept, but are subject to the new TTLs.
+     */
+    public void setCacheOptions(@NonNull MStoreCacheOptions options) {
+        if (options.profileTtlMs < 0) {
+            throw new IllegalArgumentException("Invalid profile TTL: " + options.profileTtlMs);
+        } else if (options.quotaTtlMs < 0) {
+            throw new IllegalArgumentException("Invalid quota TTL: " + options.quotaTtlMs);
+        } else if (options.maxStaleMs < 0) {
+            throw new IllegalArgumentException("Invalid max staleness: " + options.maxStaleMs);
+        }
+
+        cacheOptions = options;
+    }
+
+    /**
+     * Set a listener that receives a breakdown of where the time went for every request, or null
+     * to stop measuring.
+     */
+    public void setTimingListener(@Nullable MStoreTimingListener listener) {
+        timingListener = listener;
+    }
+
+    /**
+     * Discard all cached responses. This should be called when the data is known to have changed
+     * on the server through other means, like when a new voicemail notification is received.
+     */
+    public void invalidateCache() {
+        responseCache.clear();
+    }
+
+    private void invalidateCachedProfile() {
+        final var url = getProfileUrl();
+        responseCache.invalidateIf(url::equals);
+    }
+
+    /**
+     * Invalidate the quotas of all folders. Object paths don't identify the folder that they are
+     * in, so it's not possible to only invalidate the affected folder.
+     */
+    private void invalidateCachedQuotas() {
+        final var prefix = getFolderUrl("");
+        responseCache.invalidateIf(url -> url.startsWith(prefix));
+    }
+
     private @NonNull String getBaseUrl() {
         return BASE_URL + "/phone20/mStoreRelay/oemclient/nms/v1/ums/" + msisdnUri;
     }
@@ -196,13 +320,24 @@ public class MStoreClient {
     }
 
     /**
-     * Perform 3GPP GBA bootstrapping to obtain the credentials for digest authentication. This must
-     * be called for every request. The result must not be cached and reused.
+     * Result of GBA bootstrapping.
+     *
+     * @param credentials Username and password for use with HTTP digest auth.
+     * @param elapsedNanos Time from the request to the SIM until the keys arrived. This is only
+     *                     added to the request's timings by the thread that waits for the keys.
+     */
+    private record GbaKeys(@NonNull Pair<String, String> credentials, long elapsedNanos) {}
+
+    /**
+     * Start 3GPP GBA bootstrapping to obtain the credentials for digest authentication. This must
+     * be called for every request. The result must not be cached and reused. The NAF ID only
+     * depends on the URL's scheme and authority, so this can be started before the challenge is
+     * received.
      *
-     * @return The username and password for use with HTTP digest auth.
+     * @return A future that completes with the username and password for use with HTTP digest
+     * auth or fails with {@link MStoreException}.
      */
-    private @NonNull Pair<String, String> performGbaBootstrap(@NonNull Uri uri)
-            throws MStoreException {
+    private @NonNull CompletableFuture<GbaKeys> startGbaBootstrap(@NonNull Uri uri) {
         final var nafId = new Uri.Builder()
                 .scheme(uri.getScheme())
                 .encodedAuthority("3GPP-bootstrapping@" + uri.getEncodedAuthority())
@@ -213,14 +348,16 @@ public class MStoreClient {
                 .setTlsCipherSuite(TlsParams.TLS_RSA_WITH_AES_128_CBC_SHA)
                 .build();
 
-        final var future = new CompletableFuture<Pair<String, String>>();
+        final var future = new CompletableFuture<GbaKeys>();
+        final var start = System.nanoTime();
         final var callback = new BootstrapAuthenticationCallback() {
             @Override
             public void onKeysAvailable(@NonNull byte[] gbaKey, @NonNull String transactionId) {
                 // The encoding must match exactly what the server expects, since the client never
                 // sends the actual password to the server with HTTP digest auth.
                 String gbaKeyBase64 = Base64.encodeToString(gbaKey, Base64.NO_WRAP);
-                future.complete(new Pair<>(transactionId, gbaKeyBase64));
+                future.complete(new GbaKeys(new Pair<>(transactionId, gbaKeyBase64),
+                        System.nanoTime() - start));
             }
 
             @Override
@@ -253,174 +390,278 @@ public class MStoreClient {
                 callback
         );
 
+        return future;
+    }
+
+    /**
+     * Wait for the GBA bootstrapping started by
+     * {@link #startGbaBootstrap(Uri)} to complete.
+     *
+     * @return The username and password for use with HTTP digest auth and the bootstrap time.
+     * @throws InterruptedIOException if the thread is interrupted while waiting
+     */
+    private static @NonNull GbaKeys awaitGbaBootstrap(@NonNull CompletableFuture<GbaKeys> future)
+            throws MStoreException, IOException {
         try {
             return future.get();
         } catch (ExecutionException e) {
             throw (MStoreException) e.getCause();
         } catch (InterruptedException e) {
-            // Not reachable.
-            throw new IllegalStateException(e);
+            // Requests run on caller and executor threads, which may be interrupted.
+            Thread.currentThread().interrupt();
+            final var ioe = new InterruptedIOException("Interrupted while waiting for GBA");
+            ioe.initCause(e);
+            throw ioe;
         }
     }
 
     /**
-     * Compute the lowercase hex digest of the specified string encoded as ASCII. Currently, only
-     * MD5 is supported because support for SHA-256 in HTTP digest auth is, in general, extremely
-     * limited. It is definitely not supported by the mstore backend.
+     * Parse the WWW-Authenticate challenge from an unauthenticated (or rejected) request.
      */
-    private static @NonNull String computeHexDigest(@NonNull String algorithm,
-            @NonNull String asciiData) throws NoSuchAlgorithmException {
-        if (!"MD5".equals(algorithm)) {
-            throw new NoSuchAlgorithmException("Unsupported digest algorithm: " + algorithm);
-        }
+    private static @NonNull DigestChallenge parseChallenge(@NonNull MStoreResponse response)
+            throws MStoreException, IOException {
+        final var url = response.getUrl();
 
-        final var md = MessageDigest.getInstance(algorithm);
-        final var data = asciiData.getBytes(StandardCharsets.US_ASCII);
+        if (response.getResponseCode() != 401) {
+            throw new MStoreException(url + ": Expected HTTP 401, but have "
+                    + response.getResponseCode() + " " + response.getResponseMessage());
+        }
 
-        md.update(data);
+        var wwwAuthenticate = response.getHeaderField("WWW-Authenticate");
+        if (wwwAuthenticate == null) {
+            throw new MStoreException(url + ": Missing WWW-Authenticate header");
+        }
 
-        return HexFormat.of().formatHex(md.digest());
+        return DigestChallenge.parse(url, wwwAuthenticate);
     }
 
     /**
-     * Generate a random hex string for use with the HTTP digest auth cnonce parameter.
+     * Compute the Authorization header value for a request using the specified challenge, waiting
+     * for GBA bootstrapping to complete first.
      */
-    private static @NonNull String generateHexCnonce() {
-        final var random = new SecureRandom();
-        final var data = new byte[16];
+    private static @NonNull String authorize(@NonNull DigestChallenge challenge, @NonNull URL url,
+            @NonNull String method, @NonNull CompletableFuture<GbaKeys> credentials,
+            @NonNull MStoreRequestTimings timings) throws MStoreException, IOException {
+        final var waitStart = System.nanoTime();
+        final var keys = awaitGbaBootstrap(credentials);
+        final var digestStart = System.nanoTime();
+        timings.gbaWaitNanos += digestStart - waitStart;
+        // Only bootstraps that a request actually used count towards its timings.
+        timings.gbaNanos += keys.elapsedNanos();
 
-        random.nextBytes(data);
+        try {
+            return challenge.authorize(method, Uri.decode(url.toString()), keys.credentials());
+        } catch (IllegalArgumentException e) {
+            throw new MStoreException(url + ": Failed create Authorization header value");
+        } finally {
+            timings.digestNanos += System.nanoTime() - digestStart;
+        }
+    }
 
-        return HexFormat.of().formatHex(data);
+    /**
+     * Get the key for the protection space that a URL belongs to. Challenges are cached per key.
+     */
+    private static @NonNull String getProtectionSpace(@NonNull URL url) {
+        return url.getProtocol() + "://" + url.getAuthority();
     }
 
     /**
-     * Compute the Authorization header value in response to the WWW-Authenticate challenge from
-     * an unauthenticated request. Only the 3GPP-GBA flavor of HTTP digest auth is supported.
+     * Get the key for remembering whether body-less probes work for an endpoint. Query parameters
+     * are not part of the key.
      */
-    private @NonNull String processDigestAuth(@NonNull HttpURLConnection connection)
-            throws MStoreException, IOException {
-        final var url = connection.getURL();
+    private static @NonNull String getProbeKey(@NonNull URL url, @NonNull String method) {
+        return method + " " + getProtectionSpace(url) + url.getPath();
+    }
 
-        if (connection.getResponseCode() != 401) {
-            throw new MStoreException(url + ": Expected HTTP 401, but have "
-                    + connection.getResponseCode() + " " + connection.getResponseMessage());
+    /**
+     * Create a request with all of the common headers, plus an optional Authorization header,
+     * extra headers, and body. Every request that is built is sent, so this also counts the
+     * exchange in the timings.
+     */
+    private static @NonNull MStoreRequest buildRequest(@NonNull URL url, @NonNull String method,
+            @Nullable String authorization, @Nullable Map<String, String> extraHeaders,
+            @Nullable String contentType, @Nullable MStoreRequestBody body,
+            @NonNull MStoreRequestTimings timings) {
+        timings.exchanges++;
+
+        final var request = new MStoreRequest(url, method, body)
+                .setHeader("User-Agent", USER_AGENT)
+                .setHeader("Authorization", authorization)
+                .setHeader("Content-Type", contentType);
+
+        if (extraHeaders != null) {
+            extraHeaders.forEach(request::setHeader);
         }
+        request.timings = timings;
 
-        var wwwAuthenticate = connection.getHeaderField("WWW-Authenticate");
-        if (wwwAuthenticate == null) {
-            throw new MStoreException(url + ": Missing WWW-Authenticate header");
-        }
+        return request;
+    }
 
-        final HashMap<String, HashMap<String, String>> parsed;
-        try {
-            parsed = WwwAuthenticate.parse(wwwAuthenticate);
-        } catch (IllegalArgumentException e) {
-            throw new MStoreException(url + ": Invalid WWW-Authenticate header: " + wwwAuthenticate,
-                    e);
-        }
+    /**
+     * Send a request, automatically performing 3GPP GBA authentication. The body, if any, must be
+     * repeatable because it may need to be sent twice.
+     *
+     * If a challenge from a previous request to the same server is cached, the request is sent
+     * preemptively with an Authorization header using the next nonce count. This avoids the extra
+     * round trip for the unauthenticated request. If the server rejects the nonce, then the new
+     * challenge from the HTTP 401 response is used to retry the request once, with freshly
+     * bootstrapped credentials. If the nonce was not merely stale, preemptive auth is disabled for
+     * that server, since it evidently does not accept reused nonces. Large bodies are
+     * not sent preemptively if a body-less unauthenticated request is known to work, so that a
+     * stale nonce does not cause the body to be uploaded twice.
+     *
+     * Otherwise, GBA bootstrapping runs concurrently with the unauthenticated request, so that the
+     * SIM round trips overlap with the network round trip.
+     */
+    private @NonNull TimedResponse sendRequest(@NonNull String url, @NonNull String method,
+            @Nullable String contentType, @Nullable byte[] body)
+            throws MStoreException, IOException {
+        return sendRequest(url, method, null, contentType,
+                body != null ? MStoreRequestBody.of(body) : null);
+    }
 
-        final var digestParams = parsed.get("Digest");
-        if (digestParams == null) {
-            throw new MStoreException(url + ": Digest auth not supported: " + parsed.keySet());
-        }
+    /**
+     * Send an unauthenticated request to obtain a digest auth challenge.
+     *
+     * If the request has a body, the body is left out at first. The digest does not cover the
+     * body, so the challenge is just as valid, and this way the body is only uploaded once, with
+     * the authenticated request. If the server does not return a challenge for the body-less
+     * request, then the request is repeated with the body. If the server rejected the body-less
+     * request with a client error, it validates the body first and the body is always sent for
+     * the endpoint from then on. Other outcomes, like server errors, are not remembered.
+     */
+    private @NonNull DigestChallenge requestChallenge(@NonNull URL url, @NonNull String method,
+            @Nullable Map<String, String> extraHeaders, @Nullable String contentType,
+            @Nullable MStoreRequestBody body, @NonNull String probeKey,
+            @NonNull MStoreRequestTimings timings) throws MStoreException, IOException {
+        if (body != null && body.getContentLength() > 0
+                && !Boolean.FALSE.equals(bodylessProbes.get(probeKey))) {
+            // The server does not support keep-alive anyway.
+            try (final var response = transport.send(buildRequest(url, method, null,
+                    extraHeaders, contentType, EMPTY_BODY, timings))) {
+                final var code = response.getResponseCode();
+
+                if (code == 401 && response.getHeaderField("WWW-Authenticate") != null) {
+                    bodylessProbes.put(probeKey, true);
+                    return parseChallenge(response);
+                } else if (code >= 400 && code < 500 && code != 401) {
+                    // The server validates the body before authenticating the request.
+                    bodylessProbes.put(probeKey, false);
+                }
 
-        final var algorithm = digestParams.getOrDefault("algorithm", "MD5");
-        if (!"MD5".equals(algorithm)) {
-            throw new MStoreException(url + ": Digest: Unsupported algorithm: " + algorithm);
+                // Anything else, like a server error, says nothing about the endpoint, so the
+                // probe is tried again next time.
+            }
         }
 
-        final var qop = digestParams.getOrDefault("qop", "auth");
-        if (!"auth".equals(qop)) {
-            throw new MStoreException(url + ": Digest: Unsupported qop: " + qop);
+        try (final var response = transport.send(
+                buildRequest(url, method, null, extraHeaders, contentType, body, timings))) {
+            return parseChallenge(response);
         }
+    }
 
-        final var realm = digestParams.get("realm");
-        if (realm == null) {
-            throw new MStoreException(url + ": Digest: Missing realm");
-        }
+    /**
+     * Like {@link #sendRequest(String, String, String, byte[])}, but with additional headers that
+     * are sent with every attempt and a streaming body.
+     *
+     * The timings are reported to the listener when the returned response is closed or, if the
+     * request fails, before the exception is thrown.
+     */
+    private @NonNull TimedResponse sendRequest(@NonNull String url, @NonNull String method,
+            @Nullable Map<String, String> extraHeaders, @Nullable String contentType,
+            @Nullable MStoreRequestBody body) throws MStoreException, IOException {
+        final var urlObj = new URL(url);
+        final var timings = new MStoreRequestTimings(method, urlObj);
+        final var listener = timingListener;
+        final var start = System.nanoTime();
 
-        final var nonce = digestParams.get("nonce");
-        if (nonce == null) {
-            throw new MStoreException(url + ": Digest: Missing nonce");
+        try {
+            final var response = sendRequest(urlObj, method, extraHeaders, contentType, body,
+                    timings);
+            timings.responseCode = response.getResponseCode();
+
+            return new TimedResponse(response, timings, start, listener);
+        } catch (MStoreException | IOException | RuntimeException e) {
+            timings.totalNanos = System.nanoTime() - start;
+            if (listener != null) {
+                listener.onRequestFinished(timings);
+            }
+            throw e;
         }
+    }
 
-        final var uri = Uri.parse(url.toString());
-        final var credentials = performGbaBootstrap(uri);
-        final var cnonce = generateHexCnonce();
-        final var urlDecoded = Uri.decode(url.toString());
+    private @NonNull MStoreResponse sendRequest(@NonNull URL urlObj, @NonNull String method,
+            @Nullable Map<String, String> extraHeaders, @Nullable String contentType,
+            @Nullable MStoreRequestBody body, @NonNull MStoreRequestTimings timings)
+            throws MStoreException, IOException {
+        final var uri = Uri.parse(urlObj.toString());
+        final var protectionSpace = getProtectionSpace(urlObj);
 
-        digestParams.put("username", credentials.first);
-        digestParams.put("uri", urlDecoded);
-        digestParams.put("cnonce", cnonce);
-        digestParams.put("nc", "00000001");
+        final var probeKey = getProbeKey(urlObj, method);
+
+        final var cachedChallenge = preemptiveAuthRejected.contains(protectionSpace)
+                ? null : challenges.get(protectionSpace);
+        CompletableFuture<GbaKeys> credentials = startGbaBootstrap(uri);
 
         try {
-            final var ha1 = computeHexDigest(algorithm,
-                    credentials.first + ":" + realm + ":" + credentials.second);
-            final var ha2 = computeHexDigest(algorithm,
-                    connection.getRequestMethod() + ":" + urlDecoded);
-            final var response = computeHexDigest(algorithm,
-                    ha1 + ":" + nonce + ":00000001:" + cnonce + ":" + qop + ":" + ha2);
+            DigestChallenge challenge;
+
+            if (cachedChallenge != null && (body == null
+                    || body.getContentLength() <= PREEMPTIVE_AUTH_MAX_BODY
+                    || !Boolean.TRUE.equals(bodylessProbes.get(probeKey)))) {
+                final var authorization = authorize(cachedChallenge, urlObj, method, credentials,
+                        timings);
+                final var sendStart = timings.getClockExcludingSetup();
+                final var response = transport.send(buildRequest(urlObj, method, authorization,
+                        extraHeaders, contentType, body, timings));
+                final var sendNanos = timings.getClockExcludingSetup() - sendStart;
+
+                if (response.getResponseCode() != 401) {
+                    timings.ttfbNanos += sendNanos;
+                    return response;
+                }
 
-            digestParams.put("response", response);
-        } catch (NoSuchAlgorithmException e) {
-            // There is no version of Android that doesn't support MD5.
-            throw new IllegalStateException(e);
-        }
+                // The rejected request only served to obtain a new challenge.
+                timings.challengeNanos += sendNanos;
 
-        try {
-            return WwwAuthenticate.format("Digest", digestParams);
-        } catch (IllegalArgumentException e) {
-            throw new MStoreException(url + ": Failed create Authorization header value");
-        }
-    }
+                // The server does not support keep-alive anyway.
+                try (response) {
+                    challenge = parseChallenge(response);
+                }
 
-    /**
-     * Set all HTTP connection parameters: timeouts, method, headers, and an optional body.
-     */
-    private void setConnectionParams(@NonNull HttpURLConnection connection, @NonNull String method,
-            @Nullable String authorization, @Nullable String contentType, @Nullable byte[] body)
-            throws IOException {
-        connection.setConnectTimeout(TIMEOUT_CONNECT_MS);
-        connection.setReadTimeout(TIMEOUT_READ_MS);
-        connection.setRequestMethod(method);
-        connection.setRequestProperty("User-Agent", USER_AGENT);
-        if (authorization != null) {
-            connection.setRequestProperty("Authorization", authorization);
-        }
-        if (contentType != null) {
-            connection.setRequestProperty("Content-Type", contentType);
-        }
-        if (body != null) {
-            connection.getOutputStream().write(body);
-        }
-    }
+                if (!challenge.isStale()) {
+                    preemptiveAuthRejected.add(protectionSpace);
+                }
 
-    /**
-     * Send a request, automatically performing 3GPP GBA authentication. The entire body, if any,
-     * must be known upfront because it needs to be sent twice.
-     */
-    private @NonNull HttpURLConnection sendRequest(@NonNull String url, @NonNull String method,
-            @Nullable String contentType, @Nullable byte[] body)
-            throws MStoreException, IOException {
-        final var urlObj = new URL(url);
-        var connection = (HttpURLConnection) network.openConnection(urlObj);
-        setConnectionParams(connection, method, null, contentType, body);
+                // GBA credentials must never be reused, even if only the nonce expired.
+                credentials = startGbaBootstrap(uri);
+            } else {
+                final var challengeStart = timings.getClockExcludingSetup();
+                challenge = requestChallenge(urlObj, method, extraHeaders, contentType, body,
+                        probeKey, timings);
+                timings.challengeNanos += timings.getClockExcludingSetup() - challengeStart;
+            }
 
-        final String authorization;
+            challenges.put(protectionSpace, challenge);
 
-        try {
-            authorization = processDigestAuth(connection);
-        } finally {
-            // The server does not support keep-alive anyway.
-            connection.disconnect();
-        }
+            final var authorization = authorize(challenge, urlObj, method, credentials, timings);
+            final var sendStart = timings.getClockExcludingSetup();
+            final var response = transport.send(buildRequest(urlObj, method, authorization,
+                    extraHeaders, contentType, body, timings));
+            timings.ttfbNanos += timings.getClockExcludingSetup() - sendStart;
 
-        connection = (HttpURLConnection) network.openConnection(urlObj);
-        setConnectionParams(connection, method, authorization, contentType, body);
+            if (response.getResponseCode() == 401) {
+                // Don't try to reuse a nonce that the server won't accept.
+                challenges.remove(protectionSpace, challenge);
+            }
 
-        return connection;
+            return response;
+        } finally {
+            // Bootstraps that were never awaited, because the request failed before they were
+            // needed, are abandoned. The SIM operation itself cannot be stopped, but its result
+            // is dropped.
+            credentials.cancel(false);
+        }
     }
 
     /**
@@ -428,28 +669,64 @@ public class MStoreClient {
      * of reading the body to drain the TCP receive buffer since the mstore backend does not support
      * keepalive anyway (HTTP/1.0 only).
      */
-    private static void throwAndDisconnectOnBadStatus(@NonNull HttpURLConnection connection)
+    static void throwAndDisconnectOnBadStatus(@NonNull MStoreResponse response)
             throws MStoreException, IOException {
-        if (connection.getResponseCode() / 100 != 2) {
-            connection.disconnect();
-            throw new MStoreException(connection.getURL() + ": "
-                    + connection.getRequestMethod() + " error response: "
-                    + connection.getResponseCode() + " " + connection.getResponseMessage());
+        if (response.getResponseCode() / 100 != 2) {
+            response.close();
+            throw new MStoreException(response.getUrl() + ": "
+                    + response.getRequestMethod() + " error response: "
+                    + response.getResponseCode() + " " + response.getResponseMessage());
         }
     }
 
     /**
-     * Get the visual voicemail profile information.
+     * Send an idempotent GET request and parse the response body as JSON. Concurrent calls for the
+     * same URL share a single request and a single parse. The parsed JSON is shared between callers
+     * and may come from the cache, so it must only be read. Every caller builds its own model
+     * objects from it, which they are free to modify.
+     *
+     * @param ttlMs Time to cache the response for or 0 to not cache it.
      */
-    public @NonNull MStoreProfile getProfile() throws MStoreException, IOException {
-        final var connection = sendRequest(getProfileUrl(), "GET", null, null);
-        throwAndDisconnectOnBadStatus(connection);
+    private @NonNull JSONObject getJson(@NonNull String url, long ttlMs)
+            throws MStoreException, IOException {
+        // A request that started before an invalidation may return data that predates the change,
+        // so requests made after the invalidation must not join it.
+        final SingleFlight.Call<JSONObject> fetch = () -> {
+            final var key = url + "#" + responseCache.getGeneration();
+
+            return getFlights.run(key, () -> {
+                try (final var response = sendRequest(url, "GET", null, null)) {
+                    throwAndDisconnectOnBadStatus(response);
+
+                    final var body = response.getBody().readAllBytes();
+                    final var parseStart = System.nanoTime();
+
+                    try {
+                        return new JSONObject(new String(body, StandardCharsets.UTF_8));
+                    } catch (JSONException e) {
+                        throw new MStoreException("Failed to parse JSON response", e);
+                    } finally {
+                        response.getTimings().parseNanos += System.nanoTime() - parseStart;
+                    }
+                }
+            });
+        };
 
-        try (final var stream = connection.getInputStream()) {
-            final var data = new JSONObject(
-                    new String(stream.readAllBytes(), StandardCharsets.UTF_8));
+        if (ttlMs > 0) {
+            return responseCache.get(url, TimeUnit.MILLISECONDS.toNanos(ttlMs),
+                    TimeUnit.MILLISECONDS.toNanos(cacheOptions.maxStaleMs),
+                    getBackgroundExecutor(), fetch);
+        } else {
+            return fetch.call();
+        }
+    }
 
-            return new MStoreProfile(data);
+    /**
+     * Get the visual voicemail profile information.
+     */
+    public @NonNull MStoreProfile getProfile() throws MStoreException, IOException {
+        try {
+            return new MStoreProfile(getJson(getProfileUrl(), cacheOptions.profileTtlMs));
         } catch (JSONException e) {
             throw new MStoreException("Failed to parse JSON response", e);
         }
@@ -468,26 +745,31 @@ public class MStoreClient {
             throw new MStoreException("Failed to serialize profile as JSON", e);
         }
 
-        final var connection = sendRequest(getProfileUrl(), "PUT", CONTENT_TYPE_JSON, body);
+        try {
+            final var response = sendRequest(getProfileUrl(), "PUT", CONTENT_TYPE_JSON, body);
 
-        if (profile.oldPin != null || profile.newPin != null) {
-            if (connection.getResponseCode() == 403) {
-                connection.disconnect();
+            if (profile.oldPin != null || profile.newPin != null) {
+                if (response.getResponseCode() == 403) {
+                    final var reason =
+                            response.getHeaderField(PinChangeStatus.HEADER_REASON_PHRASE);
+                    response.close();
 
-                final var reason = connection.getHeaderField(PinChangeStatus.HEADER_REASON_PHRASE);
-                if (reason == null) {
-                    throw new MStoreException("PIN change failed with no reason given");
-                }
+                    if (reason == null) {
+                        throw new MStoreException("PIN change failed with no reason given");
+                    }
 
-                final var status = PinChangeStatus.fromReasonPhrase(reason);
-                throw new MStoreException("PIN change failed: " + status);
+                    final var status = PinChangeStatus.fromReasonPhrase(reason);
+                    throw new MStoreException("PIN change failed: " + status);
+                }
             }
-        }
 
-        throwAndDisconnectOnBadStatus(connection);
+            throwAndDisconnectOnBadStatus(response);
 
-        // This endpoint never sends a body on success.
-        connection.disconnect();
+            // This endpoint never sends a body on success.
+            response.close();
+        } finally {
+            invalidateCachedProfile();
+        }
     }
 
     /**
@@ -495,14 +777,8 @@ public class MStoreClient {
      */
     public @NonNull MStoreQuota getQuota(@NonNull String folder)
             throws MStoreException, IOException {
-        final var connection = sendRequest(getQuotaUrl(folder), "GET", null, null);
-        throwAndDisconnectOnBadStatus(connection);
-
-        try (final var stream = connection.getInputStream()) {
-            final var data = new JSONObject(
-                    new String(stream.readAllBytes(), StandardCharsets.UTF_8));
-
-            return new MStoreQuota(data);
+        try {
+            return new MStoreQuota(getJson(getQuotaUrl(folder), cacheOptions.quotaTtlMs));
         } catch (JSONException e) {
             throw new MStoreException("Failed to parse JSON response", e);
         }
@@ -513,52 +789,100 @@ public class MStoreClient {
      */
     public @NonNull MStoreObject getObject(@NonNull String objectPath)
             throws MStoreException, IOException {
-        final var connection = sendRequest(getObjectUrl(objectPath), "GET", null, null);
-        throwAndDisconnectOnBadStatus(connection);
-
-        try (final var stream = connection.getInputStream()) {
-            final var data = new JSONObject(
-                    new String(stream.readAllBytes(), StandardCharsets.UTF_8));
-
-            return new MStoreObject(data.getJSONObject("object"));
+        try {
+            return new MStoreObject(getJson(getObjectUrl(objectPath), 0).getJSONObject("object"));
         } catch (JSONException e) {
             throw new MStoreException("Failed to parse JSON response", e);
         }
     }
 
     /**
-     * Get a search filter for obtaining the list of objects in a folder sorted by the creation
-     * timestamp in descending order.
+     * Send the search request for one page of objects.
+     *
+     * @return A reader for the page or null if there are no results.
      */
-    private @NonNull JSONObject getSelectionCriteria(@NonNull String folder,
-            @Nullable String fromCursor) throws JSONException {
-        // This is hardcoded because it suits all of our needs and there's no documentation for what
-        // this query language supports to create a proper wrapper.
-        return new JSONObject()
-                .put("selectionCriteria", new JSONObject()
-                        .put("maxEntries", 100)
-                        .putOpt("fromCursor", fromCursor)
-                        .put("searchScope", new JSONObject()
-                                .put("resourceURL", getFolderUrl(folder))
-                        )
-                        .put("searchCriteria", new JSONObject()
-                                .put("operator", "Not")
-                                .put("criterion", new JSONArray()
-                                        .put(new JSONObject()
-                                                .put("type", "PurgedObject")
-                                                .put("value", "")
-                                        )
-                                )
-                        )
-                        .put("sortCriteria", new JSONObject()
-                                .put("criterion", new JSONArray()
-                                        .put(new JSONObject()
-                                                .put("type", "Date")
-                                                .put("order", "Descending")
-                                        )
-                                )
-                        )
-                );
+    private @Nullable ObjectListReader openSearchPage(@NonNull MStoreSearchCriteria criteria,
+            int maxEntries, @Nullable String fromCursor, @Nullable AdaptivePageSizer sizer)
+            throws MStoreException, IOException {
+        final byte[] body;
+        try {
+            body = criteria.toJson(getFolderUrl(criteria.getFolder()), maxEntries, fromCursor)
+                    .toString()
+                    .getBytes(StandardCharsets.UTF_8);
+        } catch (JSONException e) {
+            throw new MStoreException("Failed to serialize selection criteria", e);
+        }
+
+        final var start = System.nanoTime();
+        final var response = sendRequest(getSearchUrl(), "POST", CONTENT_TYPE_JSON, body);
+        final var headerNanos = System.nanoTime() - start;
+        throwAndDisconnectOnBadStatus(response);
+
+        if (response.getResponseCode() == 204) {
+            response.close();
+
+            // The server returns this instead of JSON data containing no objects when there are no
+            // search results.
+            return null;
+        }
+
+        // Objects are decoded directly from the stream. Large pages are never fully buffered.
+        final var stream = new CountingInputStream(response.getBody());
+        final var reader = new JsonReader(new InputStreamReader(stream, StandardCharsets.UTF_8));
+        final Predicate<MStoreObject> filter =
+                criteria.needsClientSideFiltering() ? criteria::matches : null;
+
+        final var timings = response.getTimings();
+
+        return new ObjectListReader(reader, (count, readNanos, cursor) -> {
+            // Objects are parsed while the body is being read.
+            timings.parseNanos += Math.max(0, readNanos - timings.bodyNanos);
+
+            if (sizer != null) {
+                sizer.onPageFinished(maxEntries, headerNanos, readNanos, stream.getCount(), count,
+                        cursor != null);
+            }
+        }, filter);
+    }
+
+    /**
+     * Lazily iterate over the objects in the specified folder, sorted by creation date in
+     * descending order. Pages are only requested as the iterator is consumed. The iterator must be
+     * closed if it is not fully consumed.
+     */
+    public @NonNull MStoreObjectIterator listFolder(@NonNull String folder) {
+        return listFolder(folder, new MStoreListOptions());
+    }
+
+    /**
+     * Like {@link #listFolder(String)}, but with options for controlling how pages are requested.
+     */
+    public @NonNull MStoreObjectIterator listFolder(@NonNull String folder,
+            @NonNull MStoreListOptions options) {
+        return search(new MStoreSearchCriteria(folder), options);
+    }
+
+    /**
+     * Lazily iterate over the objects that match the specified search criteria. Pages are
+     * requested as described in {@link #listFolder(String, MStoreListOptions)}. If the criteria
+     * specify the number of entries per page, then that takes precedence over the list options.
+     */
+    public @NonNull MStoreObjectIterator search(@NonNull MStoreSearchCriteria criteria,
+            @NonNull MStoreListOptions options) {
+        if (options.pageSize < 1) {
+            throw new IllegalArgumentException("Invalid page size: " + options.pageSize);
+        }
+
+        final var executor = options.executor != null ? options.executor : getBackgroundExecutor();
+        final var sizer = options.adaptivePageSize && criteria.getMaxEntries() == 0
+                ? new AdaptivePageSizer() : null;
+        final var pageSize = criteria.getMaxEntries() != 0
+                ? criteria.getMaxEntries() : options.pageSize;
+
+        return new MStoreObjectIterator(cursor -> {
+            final var maxEntries = sizer != null ? sizer.nextPageSize() : pageSize;
+            return openSearchPage(criteria, maxEntries, cursor, sizer);
+        }, options.prefetchDepth, executor);
     }
 
     /**
@@ -568,37 +892,14 @@ public class MStoreClient {
     public @NonNull ArrayList<MStoreObject> getFolderObjects(@NonNull String folder)
             throws MStoreException, IOException {
         final ArrayList<MStoreObject> objects = new ArrayList<>();
-        String fromCursor = null;
-
-        do {
-            final byte[] body;
-            try {
-                body = getSelectionCriteria(folder, fromCursor).toString()
-                        .getBytes(StandardCharsets.UTF_8);
-            } catch (JSONException e) {
-                throw new MStoreException("Failed to serialize selection criteria", e);
-            }
-
-            final var connection = sendRequest(getSearchUrl(), "POST", CONTENT_TYPE_JSON, body);
-            throwAndDisconnectOnBadStatus(connection);
-
-            if (connection.getResponseCode() == 204) {
-                // The server returns this instead of JSON data containing no objects when there are
-                // no search results.
-                break;
-            }
 
-            try (final var stream = connection.getInputStream()) {
-                final var data = new JSONObject(
-                        new String(stream.readAllBytes(), StandardCharsets.UTF_8));
-                final var page = new MStoreObjectsPage(data);
-
-                objects.addAll(page.objects);
-                fromCursor = page.cursor;
-            } catch (JSONException e) {
-                throw new MStoreException("Failed to parse JSON response", e);
-            }
-        } while (fromCursor != null);
+        try (final var iterator = listFolder(folder)) {
+            iterator.forEachRemaining(objects::add);
+        } catch (UncheckedMStoreException e) {
+            throw e.getCause();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
 
         return objects;
     }
@@ -609,9 +910,14 @@ public class MStoreClient {
     public void setFlag(@NonNull String objectPath, @NonNull String flag, boolean value)
             throws MStoreException, IOException {
         final var method = value ? "PUT" : "DELETE";
-        final var connection = sendRequest(getObjectFlagUrl(objectPath, flag), method, null, null);
-        throwAndDisconnectOnBadStatus(connection);
-        connection.disconnect();
+        try {
+            final var response = sendRequest(getObjectFlagUrl(objectPath, flag), method, null,
+                    null);
+            throwAndDisconnectOnBadStatus(response);
+            response.close();
+        } finally {
+            invalidateCachedQuotas();
+        }
     }
 
     /**
@@ -628,20 +934,21 @@ public class MStoreClient {
     }
 
     /**
-     * Parse the response of a bulk response and throw if the operation failed for any individual
-     * object.
+     * Parse the response of a bulk request.
+     *
+     * If the server fails with an HTTP 5xx status and there is no per-object response, then every
+     * object in the batch is reported as failed with that status, so that it can be retried.
      */
-    private static void throwOnBadBulkResponse(@NonNull HttpURLConnection connection)
+    private static @NonNull MStoreBulkResponseList parseBulkResponse(
+            @NonNull TimedResponse response, @NonNull List<String> objectPaths)
             throws MStoreException, IOException {
-        var inputStream = connection.getErrorStream();
-        if (inputStream == null) {
-            inputStream = connection.getInputStream();
-        }
-
-        final MStoreBulkResponseList bulkResponseList;
+        final var code = response.getResponseCode();
 
-        try (final var stream = inputStream) {
-            var data = new JSONObject(new String(stream.readAllBytes(), StandardCharsets.UTF_8));
+        try (final var stream = response.getBody()) {
+            final var body = stream.readAllBytes();
+            final var parseStart = System.nanoTime();
+            var data = new JSONObject(new String(body, StandardCharsets.UTF_8));
+            response.getTimings().parseNanos += System.nanoTime() - parseStart;
 
             // If the server returns an HTTP 5xx, then the response data is stringified inside the
             // NWK_RSP field.
@@ -649,71 +956,313 @@ public class MStoreClient {
                 data = new JSONObject(data.getString("NWK_RSP"));
             }
 
-            bulkResponseList = new MStoreBulkResponseList(data);
+            return new MStoreBulkResponseList(data);
         } catch (JSONException e) {
-            throw new MStoreException("Failed to parse JSON response", e);
+            // We otherwise intentionally do not look at the HTTP response. An HTTP error is
+            // returned if there's a mixture of successes and failures.
+            if (code / 100 != 5) {
+                throw new MStoreException("Failed to parse JSON response", e);
+            }
+
+            final var reason = Objects.requireNonNullElse(response.getResponseMessage(), "");
+            final var bulkResponseList = new MStoreBulkResponseList();
+            for (var objectPath : objectPaths) {
+                bulkResponseList.responses.add(
+                        new MStoreBulkResponseItem(objectPath, code, reason));
+            }
+
+            return bulkResponseList;
         }
+    }
+
+    /**
+     * A single bulk request for a batch of objects.
+     */
+    private interface BulkOperation {
+        @NonNull
+        MStoreBulkResponseList run(@NonNull List<String> objectPaths)
+                throws MStoreException, IOException;
+    }
 
-        // We intentionally do not look at the HTTP response. An HTTP error is returned if there's
-        // a mixture of successes and failures.
-        final var failures = bulkResponseList.responses
-                .stream()
-                .filter(r -> r.code / 100 != 2)
-                .map(r -> r.objectPath + " (" + r.code + " " + r.reason + ")")
-                .collect(Collectors.joining(", "));
-        if (!failures.isEmpty()) {
-            throw new MStoreException("Bulk request failed for: " + failures);
+    /**
+     * Send a bulk request for a single batch, retrying the objects that failed transiently as
+     * specified by the options.
+     *
+     * If a request fails with an {@link IOException}, the server may have applied it anyway, so
+     * the retry can report a 404 for objects that the failed attempt already deleted. When
+     * {@code notFoundIsSuccess} is set, such responses are reported as successful.
+     *
+     * @return The response from the last attempt for each object. If the batch failed entirely,
+     *         the objects without a response are reported in {@link MStoreBulkResult#errors}
+     *         instead of throwing.
+     * @throws InterruptedIOException If interrupted while waiting to retry.
+     */
+    private static @NonNull MStoreBulkResult runBulkBatch(
+            @NonNull List<String> objectPaths, @NonNull MStoreBulkOptions options,
+            boolean notFoundIsSuccess, @NonNull BulkOperation operation,
+            @NonNull AtomicInteger requests) throws InterruptedIOException {
+        final var result = new MStoreBulkResult();
+        var remaining = objectPaths;
+        var delayMs = options.retryDelayMs;
+        var mayHaveBeenApplied = false;
+
+        for (var attempt = 0; ; attempt++) {
+            if (attempt > 0) {
+                try {
+                    Thread.sleep(delayMs);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting to retry");
+                }
+                delayMs *= 2;
+            }
+
+            final MStoreBulkResponseList bulkResponseList;
+            try {
+                requests.incrementAndGet();
+                bulkResponseList = operation.run(remaining);
+            } catch (InterruptedIOException e) {
+                throw e;
+            } catch (IOException e) {
+                if (attempt == options.maxRetries) {
+                    recordBatchError(result, remaining, e);
+                    return result;
+                }
+                mayHaveBeenApplied = true;
+                continue;
+            } catch (MStoreException e) {
+                recordBatchError(result, remaining, e);
+                return result;
+            }
+
+            final var retry = new ArrayList<String>();
+            for (var item : bulkResponseList.responses) {
+                if (mayHaveBeenApplied && notFoundIsSuccess && item.code == 404) {
+                    item = new MStoreBulkResponseItem(item.objectPath, 200,
+                            "Already applied by an earlier attempt");
+                }
+
+                result.items.put(item.objectPath, item);
+                if (item.isTransientFailure()) {
+                    retry.add(item.objectPath);
+                }
+            }
+
+            if (retry.isEmpty() || attempt == options.maxRetries) {
+                return result;
+            }
+
+            remaining = retry;
+        }
+    }
+
+    /**
+     * Record every object of a batch that failed entirely as failed with the specified error.
+     * Responses from earlier attempts are dropped since it is unknown whether the last attempt
+     * was applied.
+     */
+    private static void recordBatchError(@NonNull MStoreBulkResult result,
+            @NonNull List<String> objectPaths, @NonNull Exception error) {
+        for (var objectPath : objectPaths) {
+            result.items.remove(objectPath);
+            result.errors.put(objectPath, error);
         }
     }
 
+    /**
+     * Split the objects into batches, send a bulk request for each batch, and collect the
+     * per-object responses in the same order as the input.
+     *
+     * If there is more than one batch, up to {@link MStoreBulkOptions#concurrency} requests are in
+     * flight at a time. If the requests for a batch fail entirely, its objects are reported as
+     * failed and the remaining batches are still sent.
+     *
+     * @param notFoundIsSuccess Whether a 404 for an object means that the operation was already
+     *                          applied. See {@link #runBulkBatch}.
+     */
+    private @NonNull MStoreBulkResult runBulk(@NonNull List<String> objectPaths,
+            @NonNull MStoreBulkOptions options, boolean notFoundIsSuccess,
+            @NonNull BulkOperation operation) throws InterruptedIOException {
+        if (options.batchSize < 1) {
+            throw new IllegalArgumentException("Invalid batch size: " + options.batchSize);
+        } else if (options.concurrency < 1) {
+            throw new IllegalArgumentException("Invalid concurrency: " + options.concurrency);
+        } else if (options.maxRetries < 0) {
+            throw new IllegalArgumentException("Invalid max retries: " + options.maxRetries);
+        } else if (options.retryDelayMs < 0) {
+            throw new IllegalArgumentException("Invalid retry delay: " + options.retryDelayMs);
+        }
+
+        // Every batch may change the objects, even if it fails.
+        final BulkOperation invalidatingOperation = batch -> {
+            try {
+                return operation.run(batch);
+            } finally {
+                invalidateCachedQuotas();
+            }
+        };
+
+        final var batches = new ArrayList<List<String>>();
+        for (var i = 0; i < objectPaths.size(); i += options.batchSize) {
+            batches.add(objectPaths.subList(i,
+                    Math.min(i + options.batchSize, objectPaths.size())));
+        }
+
+        final var responses = new MStoreBulkResult[batches.size()];
+        final var requests = new AtomicInteger();
+
+        if (batches.size() <= 1 || options.concurrency == 1) {
+            for (var i = 0; i < batches.size(); i++) {
+                responses[i] = runBulkBatch(batches.get(i), options, notFoundIsSuccess,
+                        invalidatingOperation, requests);
+            }
+        } else {
+            final var executor = options.executor != null
+                    ? options.executor : getBackgroundExecutor();
+            final var slots = new Semaphore(options.concurrency);
+            final var errors = Collections.synchronizedList(new ArrayList<Exception>());
+
+            try {
+                for (var i = 0; i < batches.size() && errors.isEmpty(); i++) {
+                    final var index = i;
+
+                    slots.acquireUninterruptibly();
+
+                    try {
+                        executor.execute(() -> {
+                            try {
+                                responses[index] = runBulkBatch(batches.get(index), options,
+                                        notFoundIsSuccess, invalidatingOperation, requests);
+                            } catch (Exception e) {
+                                errors.add(e);
+                            } finally {
+                                slots.release();
+                            }
+                        });
+                    } catch (RuntimeException e) {
+                        slots.release();
+                        throw e;
+                    }
+                }
+            } finally {
+                // Wait for the in-flight requests.
+                slots.acquireUninterruptibly(options.concurrency);
+                slots.release(options.concurrency);
+            }
+
+            if (!errors.isEmpty()) {
+                final var error = errors.get(0);
+                for (var i = 1; i < errors.size(); i++) {
+                    error.addSuppressed(errors.get(i));
+                }
+
+                if (error instanceof InterruptedIOException e) {
+                    throw e;
+                } else {
+                    throw (RuntimeException) error;
+                }
+            }
+        }
+
+        final var byPath = new HashMap<String, MStoreBulkResponseItem>();
+        final var batchErrors = new HashMap<String, Exception>();
+        for (var response : responses) {
+            byPath.putAll(response.items);
+            batchErrors.putAll(response.errors);
+        }
+
+        final var result = new MStoreBulkResult();
+        result.requests = requests.get();
+
+        for (var objectPath : objectPaths) {
+            final var item = byPath.get(objectPath);
+            final var error = batchErrors.get(objectPath);
+            if (item != null) {
+                result.items.put(objectPath, item);
+            } else if (error != null) {
+                result.errors.put(objectPath, error);
+            } else {
+                result.missing.add(objectPath);
+            }
+        }
+
+        return result;
+    }
+
     /**
      * Set or clear flags on objects. This does not fail fast. Setting the flag is always attempted
      * on every object. This is not compatible with {@link FLAG_GREETING_ACTIVE}.
      */
     public void bulkSetFlag(@NonNull List<String> objectPaths, @NonNull List<String> flags,
             boolean value) throws MStoreException, IOException {
-        final byte[] body;
-        try {
-            body = new JSONObject()
-                    .put("bulkUpdate", new JSONObject()
-                            .put("objects", new JSONObject()
-                                    .put("objectReference", getBulkResourceUrls(objectPaths))
-                            )
-                            .put("operation", value ? "AddFlag" : "RemoveFlag")
-                            .put("flags", new JSONObject()
-                                    .put("flag", new JSONArray(flags))
-                            )
-                    )
-                    .toString()
-                    .getBytes(StandardCharsets.UTF_8);
-        } catch (JSONException e) {
-            throw new MStoreException("Failed to serialize bulk request as JSON", e);
-        }
+        bulkSetFlag(objectPaths, flags, value, new MStoreBulkOptions()).throwIfFailed();
+    }
+
+    /**
+     * Like {@link #bulkSetFlag(List, List, boolean)}, but large inputs are split into batches and
+     * transient failures are retried as specified by the options. Failures for individual objects
+     * are reported in the result instead of being thrown.
+     */
+    public @NonNull MStoreBulkResult bulkSetFlag(@NonNull List<String> objectPaths,
+            @NonNull List<String> flags, boolean value, @NonNull MStoreBulkOptions options)
+            throws MStoreException, IOException {
+        return runBulk(objectPaths, options, false, batch -> {
+            final byte[] body;
+            try {
+                body = new JSONObject()
+                        .put("bulkUpdate", new JSONObject()
+                                .put("objects", new JSONObject()
+                                        .put("objectReference", getBulkResourceUrls(batch))
+                                )
+                                .put("operation", value ? "AddFlag" : "RemoveFlag")
+                                .put("flags", new JSONObject()
+                                        .put("flag", new JSONArray(flags))
+                                )
+                        )
+                        .toString()
+                        .getBytes(StandardCharsets.UTF_8);
+            } catch (JSONException e) {
+                throw new MStoreException("Failed to serialize bulk request as JSON", e);
+            }
 
-        final var connection = sendRequest(getBulkUpdateUrl(), "POST", CONTENT_TYPE_JSON, body);
-        throwOnBadBulkResponse(connection);
+            return parseBulkResponse(
+                    sendRequest(getBulkUpdateUrl(), "POST", CONTENT_TYPE_JSON, body), batch);
+        });
     }
 
     /**
      * Delete objects. This does not fail fast. Deletion is always attempted for every object.
      */
     public void bulkDelete(@NonNull List<String> objectPaths) throws MStoreException, IOException {
-        final byte[] body;
-        try {
-            body = new JSONObject()
-                    .put("bulkDelete", new JSONObject()
-                            .put("objects", new JSONObject()
-                                    .put("objectReference", getBulkResourceUrls(objectPaths))
-                            )
-                    )
-                    .toString()
-                    .getBytes(StandardCharsets.UTF_8);
-        } catch (JSONException e) {
-            throw new MStoreException("Failed to serialize bulk request as JSON", e);
-        }
+        bulkDelete(objectPaths, new MStoreBulkOptions()).throwIfFailed();
+    }
+
+    /**
+     * Like {@link #bulkDelete(List)}, but large inputs are split into batches and transient
+     * failures are retried as specified by the options. Failures for individual objects are
+     * reported in the result instead of being thrown.
+     */
+    public @NonNull MStoreBulkResult bulkDelete(@NonNull List<String> objectPaths,
+            @NonNull MStoreBulkOptions options) throws MStoreException, IOException {
+        // A retry after an ambiguous failure reports a 404 for objects that were already deleted.
+        return runBulk(objectPaths, options, true, batch -> {
+            final byte[] body;
+            try {
+                body = new JSONObject()
+                        .put("bulkDelete", new JSONObject()
+                                .put("objects", new JSONObject()
+                                        .put("objectReference", getBulkResourceUrls(batch))
+                                )
+                        )
+                        .toString()
+                        .getBytes(StandardCharsets.UTF_8);
+            } catch (JSONException e) {
+                throw new MStoreException("Failed to serialize bulk request as JSON", e);
+            }
 
-        final var connection = sendRequest(getBulkDeleteUrl(), "DELETE", CONTENT_TYPE_JSON, body);
-        throwOnBadBulkResponse(connection);
+            return parseBulkResponse(
+                    sendRequest(getBulkDeleteUrl(), "DELETE", CONTENT_TYPE_JSON, body), batch);
+        });
     }
 
     /**
@@ -722,18 +1271,55 @@ public class MStoreClient {
     public @NonNull InputStream downloadObject(@NonNull MStoreObject object)
             throws MStoreException, IOException {
         final var payloadPath = Objects.requireNonNull(object.payloadPath);
-        final var connection = sendRequest(getObjectUrl(payloadPath), "GET", null, null);
-        throwAndDisconnectOnBadStatus(connection);
+        final var response = sendRequest(getObjectUrl(payloadPath), "GET", null, null);
+        throwAndDisconnectOnBadStatus(response);
 
-        InputStream stream = connection.getInputStream();
+        InputStream stream = response.getBody();
 
-        if ("base64".equals(connection.getHeaderField("Content-Transfer-Encoding"))) {
-            stream = new Base64InputStream(stream, Base64.DEFAULT);
+        if ("base64".equals(response.getHeaderField("Content-Transfer-Encoding"))) {
+            stream = Base64BulkDecoder.wrap(stream);
         }
 
         return stream;
     }
 
+    /**
+     * Request the payload of an object exactly as stored on the server, without decoding the
+     * Content-Transfer-Encoding. The response status is not checked.
+     *
+     * @param offset If non-zero, request only the bytes starting at this offset. The server may
+     *               ignore this and send the entire payload instead.
+     * @param validator ETag or Last-Modified value from an earlier response. If the payload has
+     *                  changed since then, the server sends the entire payload.
+     */
+    @NonNull
+    MStoreResponse openRawPayload(@NonNull MStoreObject object, long offset,
+            @Nullable String validator) throws MStoreException, IOException {
+        final var payloadPath = Objects.requireNonNull(object.payloadPath);
+        final var headers = new LinkedHashMap<String, String>();
+
+        if (offset > 0) {
+            headers.put("Range", "bytes=" + offset + "-");
+            if (validator != null) {
+                headers.put("If-Range", validator);
+            }
+        }
+
+        return sendRequest(getObjectUrl(payloadPath), "GET", headers, null, null);
+    }
+
+    /**
+     * Download the payload of the specified object to a file. If an earlier call for the same file
+     * was interrupted, the download resumes where it left off if the server supports range
+     * requests. The decoded size is verified against {@link MStoreObject#payloadSize}.
+     *
+     * @return The size of the decoded payload.
+     */
+    public long downloadObject(@NonNull MStoreObject object, @NonNull File output)
+            throws MStoreException, IOException {
+        return new ResumableDownload(this, object, output).run();
+    }
+
     /**
      * Get the payload path for uploading a new object.
      */
@@ -754,6 +1340,21 @@ public class MStoreClient {
      */
     public void uploadObject(@NonNull String folder, @NonNull MStoreObject object,
             @NonNull byte[] data) throws MStoreException, IOException {
+        uploadObject(folder, object, MStoreRequestBody.of(Base64.encode(data, Base64.DEFAULT)));
+    }
+
+    /**
+     * Upload an object to the specified folder, reading the data from a file. The data is base64
+     * encoded while the request is being sent, so the file is never loaded into memory. The
+     * channel's position is not modified and it is not closed.
+     */
+    public void uploadObject(@NonNull String folder, @NonNull MStoreObject object,
+            @NonNull FileChannel data) throws MStoreException, IOException {
+        uploadObject(folder, object, new Base64FileBody(data));
+    }
+
+    private void uploadObject(@NonNull String folder, @NonNull MStoreObject object,
+            @NonNull MStoreRequestBody dataBase64) throws MStoreException, IOException {
         final var boundaryInner = "voicemail-greeting-inner";
         final var boundaryOuter = "voicemail-greeting-outer";
 
@@ -776,13 +1377,13 @@ public class MStoreClient {
                 + "Content-Length: " + objectJson.length + "\r\n\r\n")
                 .getBytes(StandardCharsets.US_ASCII);
 
-        // The second multipart body is the data, which itself is a multipart message.
-        final var dataBase64 = Base64.encode(data, Base64.DEFAULT);
+        // The second multipart body is the data, which itself is a multipart message. All of the
+        // lengths are computed upfront so that the data never needs to be buffered.
         final var dataHeader = ("--" + boundaryInner + "\r\n"
                 + "Content-Disposition: attachment;filename=\"audio.amr\"\r\n"
                 + "Content-Transfer-Encoding: base64\r\n"
                 + "Content-Type: audio/amr\r\n"
-                + "Content-Length: " + dataBase64.length + "\r\n\r\n")
+                + "Content-Length: " + dataBase64.getContentLength() + "\r\n\r\n")
                 .getBytes(StandardCharsets.US_ASCII);
         final var dataFooter = ("\r\n--" + boundaryInner + "--\r\n")
                 .getBytes(StandardCharsets.US_ASCII);
@@ -790,23 +1391,29 @@ public class MStoreClient {
         final var attachmentHeader = ("\r\n--" + boundaryOuter + "\r\n"
                 + "Content-Disposition: form-data;name=\"attachments\"\r\n"
                 + "Content-Type: multipart/mixed; boundary=" + boundaryInner + "\r\n"
-                + "Content-Length: " + (dataHeader.length + dataBase64.length + dataFooter.length)
+                + "Content-Length: "
+                + (dataHeader.length + dataBase64.getContentLength() + dataFooter.length)
                 + "\r\n\r\n")
                 .getBytes(StandardCharsets.UTF_8);
         final var outerFooter = ("\r\n--" + boundaryOuter + "--\r\n")
                 .getBytes(StandardCharsets.UTF_8);
 
-        final var body = new ByteArrayOutputStream();
-        body.write(objectHeader);
-        body.write(objectJson);
-        body.write(attachmentHeader);
-        body.write(dataHeader);
-        body.write(dataBase64);
-        body.write(dataFooter);
-        body.write(outerFooter);
-
-        final var connection = sendRequest(getObjectsBaseUrl(), "POST",
-                "multipart/form-data; boundary=" + boundaryOuter, body.toByteArray());
-        throwAndDisconnectOnBadStatus(connection);
+        final var body = MStoreRequestBody.concat(
+                MStoreRequestBody.of(objectHeader),
+                MStoreRequestBody.of(objectJson),
+                MStoreRequestBody.of(attachmentHeader),
+                MStoreRequestBody.of(dataHeader),
+                dataBase64,
+                MStoreRequestBody.of(dataFooter),
+                MStoreRequestBody.of(outerFooter));
+
+        try {
+            final var response = sendRequest(getObjectsBaseUrl(), "POST", null,
+                    "multipart/form-data; boundary=" + boundaryOuter, body);
+            throwAndDisconnectOnBadStatus(response);
+            response.close();
+        } finally {
+            invalidateCachedQuotas();
+        }
     }
 }
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2024 Andrew Gunnerson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.voicemail.impl.mstore;
+
+import android.annotation.Nullable;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Options for listing the objects in a folder. The defaults match the behavior of
+ * {@link MStoreClient#listFolder(String)}.
+ */
+public class MStoreListOptions {
+    /** Default number of objects requested per page. */
+    public static final int DEFAULT_PAGE_SIZE = 100;
+
+    /**
+     * Number of objects to request per page. Each page costs two connections and a GBA bootstrap,
+     * so larger pages make listing big folders faster, while smaller pages return the first
+     * objects sooner. Ignored if {@link #adaptivePageSize} is set.
+     */
+    public int pageSize = DEFAULT_PAGE_SIZE;
+
+    /**
+     * Start with a small page and then adjust the size of each subsequent page based on the
+     * measured latency and response size of the previous pages. This minimizes the total listing
+     * time while still returning the first objects quickly.
+     */
+    public boolean adaptivePageSize = false;
+
+    /**
+     * Number of pages to request ahead of the page currently being consumed. The request for the
+     * next page is sent as soon as the current page's cursor is known. Prefetched pages are fully
+     * decoded and held in memory until consumed. Set to 0 to request pages strictly on demand.
+     */
+    public int prefetchDepth = 0;
+
+    /**
+     * Executor for sending prefetch requests. If null, the client's shared background threads are
+     * used.
+     */
+    @Nullable
+    public Executor executor;
+}
@@ -0,0 +1,544 @@
+/*
+ * Copyright 2024 Andrew Gunnerson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.voicemail.impl.mstore;
+
+import android.annotation.NonNull;
+import android.annotation.Nullable;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Persistent store for object metadata, keyed by object path.
+ *
+ * The data is stored as an append-only log of binary records. Every change appends a record, so
+ * writes never rewrite existing data. Each record has a CRC32 checksum. If the process is killed
+ * in the middle of a write, the incomplete record at the end of the log is discarded the next time
+ * the store is opened. A record that passes the checksum but cannot be decoded is treated the same
+ * way. If a write fails, the log is truncated back to the end of the last complete record. If that
+ * is not possible either, the store refuses further writes until it is reopened. Once the log
+ * contains more obsolete records than live ones, it is compacted by writing the live records to a
+ * new file and atomically renaming it over the old one.
+ *
+ * The entire store is loaded into memory when it is opened. Decoding the binary records is much
+ * faster than parsing the JSON from the server. Objects returned by this class must not be
+ * modified.
+ * This class is thread-safe.
+ */
+public class MStoreMetadataStore implements Closeable {
+    private static final int MAGIC = 0x4d534d44; // MSMD
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+
+    private static final byte RECORD_PUT = 1;
+    private static final byte RECORD_REMOVE = 2;
+
+    /** Upper bound for a single record to avoid huge allocations when reading a corrupted log. */
+    private static final int MAX_RECORD_SIZE = 1024 * 1024;
+
+    /** Don't bother compacting small logs. */
+    private static final int MIN_COMPACTION_RECORDS = 256;
+
+    private final @NonNull File file;
+    private final @NonNull HashMap<String, MStoreObject> objects = new HashMap<>();
+    private @Nullable FileOutputStream output;
+    /** Length of the log up to the end of the last complete record. */
+    private long length;
+    private int recordCount = 0;
+
+    /**
+     * Open the store, creating it if it does not exist.
+     */
+    public MStoreMetadataStore(@NonNull File file) throws IOException {
+        this.file = file;
+
+        final var parent = file.getParentFile();
+        if (parent != null) {
+            Files.createDirectories(parent.toPath());
+        }
+
+        final var validLength = load();
+
+        if (validLength < 0) {
+            // Missing or unrecognized file.
+            rewrite();
+        } else {
+            // Drop any torn record at the end so that new records are appended after valid data.
+            try (var raf = new RandomAccessFile(file, "rw")) {
+                if (raf.length() != validLength) {
+                    raf.setLength(validLength);
+                }
+            }
+
+            length = validLength;
+
+            openForAppend();
+            maybeCompact();
+        }
+    }
+
+    private static void writeString(@NonNull DataOutputStream out, @Nullable String value)
+            throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+        } else {
+            final var bytes = value.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static @Nullable String readString(@NonNull DataInputStream in) throws IOException {
+        final var length = in.readInt();
+        if (length == -1) {
+            return null;
+        } else if (length < 0 || length > in.available()) {
+            throw new IOException("Invalid string length: " + length);
+        }
+
+        final var bytes = new byte[length];
+        in.readFully(bytes);
+
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeInstant(@NonNull DataOutputStream out, @Nullable Instant value)
+            throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeLong(value.getEpochSecond());
+            out.writeInt(value.getNano());
+        }
+    }
+
+    private static @Nullable Instant readInstant(@NonNull DataInputStream in) throws IOException {
+        if (!in.readBoolean()) {
+            return null;
+        }
+
+        return Instant.ofEpochSecond(in.readLong(), in.readInt());
+    }
+
+    private static void writeObject(@NonNull DataOutputStream out, @NonNull MStoreObject object)
+            throws IOException {
+        out.writeBoolean(object.duration != null);
+        if (object.duration != null) {
+            out.writeLong(object.duration);
+        }
+        writeString(out, object.responseContentTransferEncoding);
+        writeString(out, object.responseContentType);
+        writeInstant(out, object.creationTimestamp);
+        writeString(out, object.direction);
+        writeInstant(out, object.expiryTimestamp);
+        writeString(out, object.fromNumber);
+        writeString(out, object.importance);
+        writeString(out, object.context);
+        writeString(out, object.id);
+        writeString(out, object.mimeVersion);
+        writeString(out, object.returnNumber);
+        writeString(out, object.sensitivity);
+        writeString(out, object.sourceNode);
+        writeString(out, object.subject);
+        writeString(out, object.toNumber);
+        writeString(out, object.greetingType);
+
+        out.writeInt(object.unknownAttrs.size());
+        for (var entry : object.unknownAttrs.entrySet()) {
+            writeString(out, entry.getKey());
+            writeString(out, entry.getValue());
+        }
+
+        out.writeInt(object.flags.size());
+        for (var flag : object.flags) {
+            writeString(out, flag);
+        }
+
+        writeString(out, object.payloadContentType);
+        out.writeLong(object.payloadSize);
+        writeString(out, object.payloadContentEncoding);
+        writeString(out, object.payloadContentDisposition);
+        writeString(out, object.payloadPath);
+        writeString(out, object.objectPath);
+    }
+
+    private static @NonNull MStoreObject readObject(@NonNull DataInputStream in)
+            throws IOException {
+        final var object = new MStoreObject();
+
+        if (in.readBoolean()) {
+            object.duration = in.readLong();
+        }
+        object.responseContentTransferEncoding = readString(in);
+        object.responseContentType = readString(in);
+        object.creationTimestamp = readInstant(in);
+        object.direction = readString(in);
+        object.expiryTimestamp = readInstant(in);
+        object.fromNumber = readString(in);
+        object.importance = readString(in);
+        object.context = readString(in);
+        object.id = readString(in);
+        object.mimeVersion = readString(in);
+        object.returnNumber = readString(in);
+        object.sensitivity = readString(in);
+        object.sourceNode = readString(in);
+        object.subject = readString(in);
+        object.toNumber = readString(in);
+        object.greetingType = readString(in);
+
+        final var numAttrs = in.readInt();
+        for (var i = 0; i < numAttrs; i++) {
+            object.unknownAttrs.put(readString(in), readString(in));
+        }
+
+        final var numFlags = in.readInt();
+        for (var i = 0; i < numFlags; i++) {
+            object.flags.add(readString(in));
+        }
+
+        object.payloadContentType = readString(in);
+        object.payloadSize = in.readLong();
+        object.payloadContentEncoding = readString(in);
+        object.payloadContentDisposition = readString(in);
+        object.payloadPath = readString(in);
+        object.objectPath = readString(in);
+
+        if (object.objectPath == null) {
+            throw new IOException("Record has no object path");
+        }
+
+        return object;
+    }
+
+    /**
+     * Load all valid records from the log.
+     *
+     * @return The length of the valid portion of the file or -1 if the file does not exist or is
+     *         not a valid log.
+     */
+    private long load() throws IOException {
+        if (!file.exists()) {
+            return -1;
+        }
+
+        final var data = Files.readAllBytes(file.toPath());
+        final var in = new DataInputStream(new ByteArrayInputStream(data));
+
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return -1;
+            }
+        } catch (EOFException e) {
+            return -1;
+        }
+
+        long offset = HEADER_SIZE;
+        final var crc = new CRC32();
+
+        while (true) {
+            try {
+                final var length = in.readInt();
+                final var checksum = in.readInt();
+                if (length < 1 || length > MAX_RECORD_SIZE || length > in.available()) {
+                    break;
+                }
+
+                final var record = new byte[length];
+                in.readFully(record);
+
+                crc.reset();
+                crc.update(record);
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+
+                applyRecord(record);
+                offset += 8 + length;
+                recordCount++;
+            } catch (IOException | RuntimeException e) {
+                // Truncated or malformed record. Everything after it is discarded.
+                break;
+            }
+        }
+
+        return offset;
+    }
+
+    private void applyRecord(@NonNull byte[] record) throws IOException {
+        final var in = new DataInputStream(new ByteArrayInputStream(record));
+
+        switch (in.readByte()) {
+            case RECORD_PUT -> {
+                final var object = readObject(in);
+                objects.put(object.objectPath, object);
+            }
+            case RECORD_REMOVE -> objects.remove(readString(in));
+            default -> throw new IOException("Unknown record type");
+        }
+    }
+
+    private static void writeRecord(@NonNull DataOutputStream out, @NonNull byte[] record)
+            throws IOException {
+        final var crc = new CRC32();
+        crc.update(record);
+
+        out.writeInt(record.length);
+        out.writeInt((int) crc.getValue());
+        out.write(record);
+    }
+
+    private static @NonNull byte[] encodePut(@NonNull MStoreObject object) throws IOException {
+        final var buf = new ByteArrayOutputStream();
+        final var out = new DataOutputStream(buf);
+
+        out.writeByte(RECORD_PUT);
+        writeObject(out, object);
+
+        return buf.toByteArray();
+    }
+
+    private static @NonNull byte[] encodeRemove(@NonNull String objectPath) throws IOException {
+        final var buf = new ByteArrayOutputStream();
+        final var out = new DataOutputStream(buf);
+
+        out.writeByte(RECORD_REMOVE);
+        writeString(out, objectPath);
+
+        return buf.toByteArray();
+    }
+
+    private void openForAppend() throws IOException {
+        output = new FileOutputStream(file, true);
+    }
+
+    private void closeOutput() throws IOException {
+        if (output != null) {
+            final var stream = output;
+            output = null;
+            stream.close();
+        }
+    }
+
+    /**
+     * Write all live records to a new log and atomically replace the old one.
+     */
+    private void rewrite() throws IOException {
+        closeOutput();
+
+        final var tempFile = new File(file.getPath() + ".tmp");
+
+        try (var tempOutput = new FileOutputStream(tempFile);
+                var out = new DataOutputStream(new BufferedOutputStream(tempOutput))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+
+            for (var object : objects.values()) {
+                writeRecord(out, encodePut(object));
+            }
+
+            out.flush();
+            tempOutput.getFD().sync();
+        }
+
+        Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+
+        recordCount = objects.size();
+        length = file.length();
+        openForAppend();
+    }
+
+    private void maybeCompact() throws IOException {
+        if (recordCount >= MIN_COMPACTION_RECORDS && recordCount > 2 * objects.size()) {
+            rewrite();
+        }
+    }
+
+    private void append(@NonNull ArrayList<byte[]> records) throws IOException {
+        if (output == null) {
+            throw new IOException("Store is closed or failed");
+        }
+
+        final var buf = new ByteArrayOutputStream();
+        final var out = new DataOutputStream(buf);
+
+        for (var record : records) {
+            writeRecord(out, record);
+        }
+
+        final var data = buf.toByteArray();
+
+        try {
+            output.write(data);
+            output.getFD().sync();
+        } catch (IOException e) {
+            // Don't leave a torn record behind for later appends to follow.
+            try {
+                output.getChannel().truncate(length);
+            } catch (IOException e2) {
+                e.addSuppressed(e2);
+
+                try {
+                    closeOutput();
+                } catch (IOException e3) {
+                    e.addSuppressed(e3);
+                }
+            }
+
+            throw e;
+        }
+
+        length += data.length;
+        recordCount += records.size();
+    }
+
+    /**
+     * Get the object with the specified path or null if it is not in the store.
+     */
+    public synchronized @Nullable MStoreObject get(@NonNull String objectPath) {
+        return objects.get(objectPath);
+    }
+
+    /**
+     * Get all objects, sorted by creation date in descending order like the search API.
+     */
+    public synchronized @NonNull ArrayList<MStoreObject> getAll() {
+        final var result = new ArrayList<>(objects.values());
+        result.sort(Comparator.comparing((MStoreObject o) -> o.creationTimestamp,
+                Comparator.nullsLast(Comparator.reverseOrder())));
+        return result;
+    }
+
+    /**
+     * Whether an object with the specified path is in the store.
+     */
+    public synchronized boolean contains(@NonNull String objectPath) {
+        return objects.containsKey(objectPath);
+    }
+
+    /**
+     * Number of objects in the store.
+     */
+    public synchronized int size() {
+        return objects.size();
+    }
+
+    /**
+     * Add or replace objects. The store keeps a reference to the objects, so they must not be
+     * modified afterwards. All changes are durable once this returns.
+     *
+     * @throws IllegalArgumentException if an object has no object path.
+     */
+    public synchronized void putAll(@NonNull Collection<MStoreObject> objectsToPut)
+            throws IOException {
+        final var records = new ArrayList<byte[]>(objectsToPut.size());
+
+        for (var object : objectsToPut) {
+            if (object.objectPath == null) {
+                throw new IllegalArgumentException("Object has no object path");
+            }
+            records.add(encodePut(object));
+        }
+
+        append(records);
+
+        for (var object : objectsToPut) {
+            objects.put(object.objectPath, object);
+        }
+
+        maybeCompact();
+    }
+
+    /**
+     * Add or replace an object. See {@link #putAll(Collection)}.
+     */
+    public void put(@NonNull MStoreObject object) throws IOException {
+        putAll(List.of(object));
+    }
+
+    /**
+     * Remove objects. Paths that are not in the store are ignored.
+     */
+    public synchronized void removeAll(@NonNull Collection<String> objectPaths)
+            throws IOException {
+        final var records = new ArrayList<byte[]>(objectPaths.size());
+
+        for (var path : objectPaths) {
+            if (objects.containsKey(path)) {
+                records.add(encodeRemove(path));
+            }
+        }
+
+        if (records.isEmpty()) {
+            return;
+        }
+
+        append(records);
+
+        for (var path : objectPaths) {
+            objects.remove(path);
+        }
+
+        maybeCompact();
+    }
+
+    /**
+     * Remove an object. See {@link #removeAll(Collection)}.
+     */
+    public void remove(@NonNull String objectPath) throws IOException {
+        removeAll(List.of(objectPath));
+    }
+
+    /**
+     * Remove all objects.
+     */
+    public synchronized void clear() throws IOException {
+        objects.clear();
+        rewrite();
+    }
+
+    /**
+     * Rewrite the log so that it only contains live records. This happens automatically once
+     * enough records are obsolete.
+     */
+    public synchronized void compact() throws IOException {
+        rewrite();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        closeOutput();
+    }
+}
@@ -18,11 +18,14 @@ package com.android.voicemail.impl.mstore;
 
 import android.annotation.NonNull;
 import android.annotation.Nullable;
+import android.util.JsonReader;
+import android.util.JsonToken;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.IOException;
 import java.time.DateTimeException;
 import java.time.Instant;
 import java.time.format.DateTimeFormatter;
@@ -201,6 +204,30 @@ public class MStoreObject {
      */
     public MStoreObject() {}
 
+    private void setAttribute(@NonNull String name, @NonNull String value) throws JSONException {
+        switch (name) {
+            case FIELD_DURATION -> this.duration = parseLong(value);
+            case FIELD_RESPONSE_CONTENT_TRANSFER_ENCODING ->
+                    this.responseContentTransferEncoding = value;
+            case FIELD_RESPONSE_CONTENT_TYPE -> this.responseContentType = value;
+            case FIELD_CREATION_TIMESTAMP -> this.creationTimestamp = parseInstant(value);
+            case FIELD_DIRECTION -> this.direction = value;
+            case FIELD_EXPIRY_TIMESTAMP -> this.expiryTimestamp = parseInstant(value);
+            case FIELD_FROM_NUMBER -> this.fromNumber = value;
+            case FIELD_IMPORTANCE -> this.importance = value;
+            case FIELD_CONTEXT -> this.context = value;
+            case FIELD_ID -> this.id = value;
+            case FIELD_MIME_VERSION -> this.mimeVersion = value;
+            case FIELD_RETURN_NUMBER -> this.returnNumber = value;
+            case FIELD_SENSITIVITY -> this.sensitivity = value;
+            case FIELD_SOURCE_NODE -> this.sourceNode = value;
+            case FIELD_SUBJECT -> this.subject = value;
+            case FIELD_TO_NUMBER -> this.toNumber = value;
+            case FIELD_GREETING_TYPE -> this.greetingType = value;
+            default -> this.unknownAttrs.put(name, value);
+        }
+    }
+
     public MStoreObject(@NonNull JSONObject data) throws JSONException {
         final var attributes = data.getJSONObject("attributes");
         final var attribute = attributes.getJSONArray("attribute");
@@ -212,29 +239,8 @@ public class MStoreObject {
             if (values.length() != 1) {
                 throw new JSONException("Invalid attribute value: " + values);
             }
-            final var value = values.getString(0);
-
-            switch (name) {
-                case FIELD_DURATION -> this.duration = parseLong(value);
-                case FIELD_RESPONSE_CONTENT_TRANSFER_ENCODING ->
-                        this.responseContentTransferEncoding = value;
-                case FIELD_RESPONSE_CONTENT_TYPE -> this.responseContentType = value;
-                case FIELD_CREATION_TIMESTAMP -> this.creationTimestamp = parseInstant(value);
-                case FIELD_DIRECTION -> this.direction = value;
-                case FIELD_EXPIRY_TIMESTAMP -> this.expiryTimestamp = parseInstant(value);
-                case FIELD_FROM_NUMBER -> this.fromNumber = value;
-                case FIELD_IMPORTANCE -> this.importance = value;
-                case FIELD_CONTEXT -> this.context = value;
-                case FIELD_ID -> this.id = value;
-                case FIELD_MIME_VERSION -> this.mimeVersion = value;
-                case FIELD_RETURN_NUMBER -> this.returnNumber = value;
-                case FIELD_SENSITIVITY -> this.sensitivity = value;
-                case FIELD_SOURCE_NODE -> this.sourceNode = value;
-                case FIELD_SUBJECT -> this.subject = value;
-                case FIELD_TO_NUMBER -> this.toNumber = value;
-                case FIELD_GREETING_TYPE -> this.greetingType = value;
-                default -> this.unknownAttrs.put(name, value);
-            }
+
+            setAttribute(name, values.getString(0));
         }
 
         final var flags = data.optJSONObject("flags");
@@ -261,6 +267,179 @@ public class MStoreObject {
         this.objectPath = MStoreClient.getObjectPathFromUrl(data.getString("resourceURL"));
     }
 
+    /**
+     * Throw if a required field was not present in the streamed JSON data.
+     */
+    private static <T> @NonNull T requireField(@Nullable T value, @NonNull String name)
+            throws JSONException {
+        if (value == null) {
+            throw new JSONException("Missing required field: " + name);
+        }
+
+        return value;
+    }
+
+    /**
+     * Read the {@code attributes} object from a JSON stream.
+     */
+    private void readAttributes(@NonNull JsonReader reader) throws IOException, JSONException {
+        var haveAttribute = false;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (!"attribute".equals(reader.nextName())) {
+                reader.skipValue();
+                continue;
+            }
+
+            haveAttribute = true;
+
+            reader.beginArray();
+            while (reader.hasNext()) {
+                String name = null;
+                String value = null;
+                var numValues = 0;
+
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    switch (reader.nextName()) {
+                        case "name" -> name = reader.nextString();
+                        case "value" -> {
+                            reader.beginArray();
+                            while (reader.hasNext()) {
+                                value = reader.nextString();
+                                numValues++;
+                            }
+                            reader.endArray();
+                        }
+                        default -> reader.skipValue();
+                    }
+                }
+                reader.endObject();
+
+                if (numValues != 1) {
+                    throw new JSONException("Invalid attribute value count for " + name + ": "
+                            + numValues);
+                }
+
+                setAttribute(requireField(name, "name"), requireField(value, "value"));
+            }
+            reader.endArray();
+        }
+        reader.endObject();
+
+        if (!haveAttribute) {
+            throw new JSONException("Missing required field: attribute");
+        }
+    }
+
+    /**
+     * Read the optional {@code flags} object from a JSON stream.
+     */
+    private void readFlags(@NonNull JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return;
+        }
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (!"flag".equals(reader.nextName())) {
+                reader.skipValue();
+                continue;
+            }
+
+            reader.beginArray();
+            while (reader.hasNext()) {
+                this.flags.add(reader.nextString());
+            }
+            reader.endArray();
+        }
+        reader.endObject();
+    }
+
+    /**
+     * Read the {@code payloadPart} array from a JSON stream. Exactly one payload must be present.
+     */
+    private void readPayloadPart(@NonNull JsonReader reader) throws IOException, JSONException {
+        var numPayloads = 0;
+
+        reader.beginArray();
+        while (reader.hasNext()) {
+            numPayloads++;
+
+            String size = null;
+            String href = null;
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "contentType" -> this.payloadContentType = reader.nextString();
+                    case "size" -> size = reader.nextString();
+                    case "contentEncoding" -> this.payloadContentEncoding = reader.nextString();
+                    case "contentDisposition" ->
+                            this.payloadContentDisposition = reader.nextString();
+                    case "href" -> href = reader.nextString();
+                    default -> reader.skipValue();
+                }
+            }
+            reader.endObject();
+
+            requireField(this.payloadContentType, "contentType");
+            requireField(this.payloadContentEncoding, "contentEncoding");
+            requireField(this.payloadContentDisposition, "contentDisposition");
+            this.payloadSize = parseLong(requireField(size, "size"));
+            this.payloadPath = MStoreClient.getObjectPathFromUrl(requireField(href, "href"));
+        }
+        reader.endArray();
+
+        if (numPayloads != 1) {
+            throw new JSONException("Expected single payload, but have " + numPayloads);
+        }
+    }
+
+    /**
+     * Create an instance by reading a single JSON object from a stream. This produces the same
+     * result as {@link #MStoreObject(JSONObject)}, but without building an intermediate DOM. The
+     * reader is left positioned after the end of the object.
+     */
+    public MStoreObject(@NonNull JsonReader reader) throws IOException, JSONException {
+        var haveAttributes = false;
+        var havePayloadPart = false;
+        String resourceUrl = null;
+
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "attributes" -> {
+                        readAttributes(reader);
+                        haveAttributes = true;
+                    }
+                    case "flags" -> readFlags(reader);
+                    case "payloadPart" -> {
+                        readPayloadPart(reader);
+                        havePayloadPart = true;
+                    }
+                    case "resourceURL" -> resourceUrl = reader.nextString();
+                    default -> reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (IllegalStateException e) {
+            // JsonReader reports unexpected token types this way.
+            throw new JSONException("Unexpected JSON structure", e);
+        }
+
+        if (!haveAttributes) {
+            throw new JSONException("Missing required field: attributes");
+        } else if (!havePayloadPart) {
+            throw new JSONException("Missing required field: payloadPart");
+        }
+        this.objectPath = MStoreClient.getObjectPathFromUrl(
+                requireField(resourceUrl, "resourceURL"));
+    }
+
     private static @NonNull JSONObject newAttribute(@NonNull String name, @NonNull String value)
             throws JSONException {
         return new JSONObject()
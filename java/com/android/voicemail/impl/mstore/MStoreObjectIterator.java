@@ -0,0 +1,383 @@
+/*
+ * Copyright 2024 Andrew Gunnerson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.voicemail.impl.mstore;
+
+import android.annotation.NonNull;
+import android.annotation.Nullable;
+
+import org.json.JSONException;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Lazily iterates over the objects in a folder. Objects are yielded as soon as they are decoded
+ * from the response. Stopping early (eg. via {@link #close()} or {@link Stream#limit(long)}) avoids
+ * requesting the remaining pages.
+ *
+ * By default, each page of search results is only requested once the previous page has been
+ * consumed. If {@link MStoreListOptions#prefetchDepth} is set, the request for the next page is
+ * sent on a background thread as soon as the cursor for the current page has been decoded. The
+ * first page is always streamed on the calling thread so that the first object is available as
+ * early as possible.
+ *
+ * Since {@link Iterator} cannot throw checked exceptions, errors are reported as
+ * {@link UncheckedMStoreException} or {@link UncheckedIOException}. The iterator must be closed if
+ * it is not fully consumed. It is not safe to use from multiple threads.
+ */
+public class MStoreObjectIterator implements Iterator<MStoreObject>, Closeable {
+    /**
+     * Opens a page of search results.
+     */
+    interface PageOpener {
+        /**
+         * Send the search request for a page.
+         *
+         * @param cursor Cursor from the previous page or null for the first page.
+         * @return A reader for the page or null if there are no results.
+         */
+        @Nullable
+        ObjectListReader open(@Nullable String cursor) throws MStoreException, IOException;
+    }
+
+    /**
+     * A page that was fully decoded in the background.
+     */
+    private record PrefetchedPage(@NonNull ArrayList<MStoreObject> objects,
+            @Nullable String cursor) {}
+
+    private final @NonNull PageOpener opener;
+    private final int prefetchDepth;
+    private final @NonNull Executor executor;
+
+    // Consumer state. Only accessed by the thread using the iterator.
+    private @Nullable ObjectListReader page;
+    private boolean pageCursorQueued = false;
+    private @Nullable Iterator<MStoreObject> prefetchedObjects;
+    private @Nullable String prefetchedCursor;
+    private @Nullable MStoreObject nextObject;
+    private boolean started = false;
+    private boolean exhausted = false;
+
+    // Prefetch state. Shared with the background threads.
+    private final @NonNull Object lock = new Object();
+    private final @NonNull ArrayDeque<CompletableFuture<PrefetchedPage>> prefetchQueue =
+            new ArrayDeque<>();
+    private @Nullable String pendingCursor;
+    private boolean closed = false;
+
+    MStoreObjectIterator(@NonNull PageOpener opener, int prefetchDepth,
+            @NonNull Executor executor) {
+        if (prefetchDepth < 0) {
+            throw new IllegalArgumentException("Invalid prefetch depth: " + prefetchDepth);
+        }
+
+        this.opener = opener;
+        this.prefetchDepth = prefetchDepth;
+        this.executor = executor;
+    }
+
+    private static @Nullable MStoreObject readNext(@NonNull ObjectListReader reader)
+            throws MStoreException, IOException {
+        try {
+            return reader.next();
+        } catch (JSONException e) {
+            throw new MStoreException("Failed to parse JSON response", e);
+        }
+    }
+
+    /**
+     * Called exactly once per page when its cursor becomes known. The next page is requested
+     * immediately unless the prefetch queue is full, in which case it is requested when the
+     * consumer takes a page off the queue.
+     */
+    private void onCursorAvailable(@NonNull String cursor) {
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+
+            if (prefetchQueue.size() < prefetchDepth) {
+                prefetchQueue.add(prefetch(cursor));
+            } else {
+                pendingCursor = cursor;
+            }
+        }
+    }
+
+    private @NonNull CompletableFuture<PrefetchedPage> prefetch(@NonNull String cursor) {
+        final var future = new CompletableFuture<PrefetchedPage>();
+
+        try {
+            executor.execute(() -> {
+                try {
+                    future.complete(fetchPage(cursor));
+                } catch (Throwable e) {
+                    future.completeExceptionally(e);
+                }
+            });
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+        }
+
+        return future;
+    }
+
+    /**
+     * Request and fully decode a page in the background. The following page is requested as soon
+     * as this page's cursor is decoded.
+     */
+    private @NonNull PrefetchedPage fetchPage(@NonNull String cursor)
+            throws MStoreException, IOException {
+        final var objects = new ArrayList<MStoreObject>();
+
+        synchronized (lock) {
+            if (closed) {
+                return new PrefetchedPage(objects, null);
+            }
+        }
+
+        try (final var reader = opener.open(cursor)) {
+            if (reader == null) {
+                return new PrefetchedPage(objects, null);
+            }
+
+            var cursorQueued = false;
+
+            while (true) {
+                final var object = readNext(reader);
+
+                if (!cursorQueued && reader.getCursor() != null) {
+                    cursorQueued = true;
+                    onCursorAvailable(reader.getCursor());
+                }
+
+                if (object == null) {
+                    break;
+                }
+
+                objects.add(object);
+            }
+
+            return new PrefetchedPage(objects, reader.getCursor());
+        }
+    }
+
+    /**
+     * Wait for a prefetched page and unwrap any exception thrown while fetching it.
+     */
+    private static @NonNull PrefetchedPage awaitPage(
+            @NonNull CompletableFuture<PrefetchedPage> future)
+            throws MStoreException, IOException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            final var cause = e.getCause();
+            if (cause instanceof MStoreException mStoreException) {
+                throw mStoreException;
+            } else if (cause instanceof IOException ioException) {
+                throw ioException;
+            } else if (cause instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new IllegalStateException(cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for page");
+        }
+    }
+
+    /**
+     * Move on to the page following the one that was just consumed.
+     *
+     * @return Whether there is another page.
+     */
+    private boolean openNextPage(@Nullable String cursor) throws MStoreException, IOException {
+        if (cursor == null) {
+            return false;
+        }
+
+        if (prefetchDepth == 0) {
+            page = opener.open(cursor);
+            pageCursorQueued = false;
+            return page != null;
+        }
+
+        CompletableFuture<PrefetchedPage> future;
+
+        synchronized (lock) {
+            future = prefetchQueue.poll();
+
+            // Make room for the page that was waiting on the queue.
+            if (pendingCursor != null && prefetchQueue.size() < prefetchDepth) {
+                prefetchQueue.add(prefetch(pendingCursor));
+                pendingCursor = null;
+            }
+        }
+
+        if (future == null) {
+            // Not reachable since every cursor is queued when it is decoded, but fetch it directly
+            // instead of silently truncating the listing.
+            future = CompletableFuture.completedFuture(fetchPage(cursor));
+        }
+
+        final var prefetched = awaitPage(future);
+        prefetchedObjects = prefetched.objects.iterator();
+        prefetchedCursor = prefetched.cursor;
+
+        return true;
+    }
+
+    /**
+     * Decode the next object, moving on to the next page if needed.
+     */
+    private @Nullable MStoreObject advance() throws MStoreException, IOException {
+        if (!started) {
+            started = true;
+            page = opener.open(null);
+            if (page == null) {
+                return null;
+            }
+        }
+
+        while (true) {
+            if (page != null) {
+                final var object = readNext(page);
+
+                if (prefetchDepth > 0 && !pageCursorQueued && page.getCursor() != null) {
+                    pageCursorQueued = true;
+                    onCursorAvailable(page.getCursor());
+                }
+
+                if (object != null) {
+                    return object;
+                }
+
+                final var cursor = page.getCursor();
+                page.close();
+                page = null;
+
+                if (!openNextPage(cursor)) {
+                    return null;
+                }
+            } else if (prefetchedObjects != null) {
+                if (prefetchedObjects.hasNext()) {
+                    return prefetchedObjects.next();
+                }
+
+                prefetchedObjects = null;
+
+                if (!openNextPage(prefetchedCursor)) {
+                    return null;
+                }
+            } else {
+                return null;
+            }
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (nextObject != null) {
+            return true;
+        } else if (exhausted) {
+            return false;
+        }
+
+        try {
+            nextObject = advance();
+        } catch (MStoreException e) {
+            close();
+            throw new UncheckedMStoreException(e);
+        } catch (IOException e) {
+            close();
+            throw new UncheckedIOException(e);
+        }
+
+        if (nextObject == null) {
+            close();
+            return false;
+        }
+
+        return true;
+    }
+
+    @Override
+    public @NonNull MStoreObject next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+
+        final var object = nextObject;
+        nextObject = null;
+
+        return object;
+    }
+
+    /**
+     * Get a sequential stream backed by this iterator. Closing the stream closes the iterator.
+     */
+    public @NonNull Stream<MStoreObject> stream() {
+        final var spliterator = Spliterators.spliteratorUnknownSize(this,
+                Spliterator.ORDERED | Spliterator.NONNULL);
+
+        return StreamSupport.stream(spliterator, false).onClose(this::close);
+    }
+
+    /**
+     * Stop iterating and disconnect any open search response. No further requests are sent.
+     * Prefetch requests that are already in flight are allowed to finish, but their results are
+     * discarded.
+     */
+    @Override
+    public void close() {
+        exhausted = true;
+        prefetchedObjects = null;
+
+        synchronized (lock) {
+            closed = true;
+            pendingCursor = null;
+
+            for (var future : prefetchQueue) {
+                future.cancel(false);
+            }
+            prefetchQueue.clear();
+        }
+
+        if (page != null) {
+            try {
+                page.close();
+            } catch (IOException e) {
+                // The connection is discarded either way.
+            }
+            page = null;
+        }
+    }
+}
@@ -0,0 +1,342 @@
+/*
+ * Copyright 2024 Andrew Gunnerson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.voicemail.impl.mstore;
+
+import android.annotation.NonNull;
+import android.annotation.Nullable;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Objects;
+import java.util.UUID;
+
+/**
+ * On-disk cache for decoded object payloads, keyed by payload path.
+ *
+ * Each entry consists of a data file and a metadata file that records the payload path, size, and
+ * content type. An entry is only used if the metadata matches the {@link MStoreObject} being
+ * requested. Entries are written to temporary files first and atomically renamed into place, so a
+ * partially downloaded payload is never served. When the total size exceeds the byte budget, the
+ * least recently used entries are evicted. The access order is persisted via the data files'
+ * modification times. This class is thread-safe.
+ */
+public class MStorePayloadCache {
+    private static final String SUFFIX_DATA = ".data";
+    private static final String SUFFIX_META = ".meta";
+    private static final String SUFFIX_TEMP = ".tmp";
+
+    private static final String KEY_PAYLOAD_PATH = "payloadPath";
+    private static final String KEY_PAYLOAD_SIZE = "payloadSize";
+    private static final String KEY_CONTENT_TYPE = "contentType";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final @NonNull File dir;
+    private final long maxBytes;
+
+    /** Size of each entry, keyed by cache key, in least recently used order. */
+    private final @NonNull LinkedHashMap<String, Long> entries =
+            new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes = 0;
+
+    /**
+     * Open the cache, creating the directory if needed. Leftover temporary files from an earlier
+     * process are removed.
+     *
+     * @param maxBytes Byte budget for the cached payloads.
+     */
+    public MStorePayloadCache(@NonNull File dir, long maxBytes) throws IOException {
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException("Invalid cache size: " + maxBytes);
+        }
+
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+
+        Files.createDirectories(dir.toPath());
+
+        final var dataFiles = new ArrayList<File>();
+        final var files = dir.listFiles();
+
+        if (files != null) {
+            for (var file : files) {
+                final var name = file.getName();
+
+                if (name.endsWith(SUFFIX_TEMP)) {
+                    Files.deleteIfExists(file.toPath());
+                } else if (name.endsWith(SUFFIX_DATA)) {
+                    dataFiles.add(file);
+                }
+            }
+        }
+
+        dataFiles.sort(Comparator.comparingLong(File::lastModified));
+
+        for (var file : dataFiles) {
+            final var name = file.getName();
+            final var key = name.substring(0, name.length() - SUFFIX_DATA.length());
+
+            if (getMetaFile(key).exists()) {
+                entries.put(key, file.length());
+                totalBytes += file.length();
+            } else {
+                Files.deleteIfExists(file.toPath());
+            }
+        }
+
+        synchronized (this) {
+            evict();
+        }
+    }
+
+    private static @NonNull String getKey(@NonNull String payloadPath) {
+        try {
+            final var md = MessageDigest.getInstance("SHA-256");
+            final var digest = md.digest(payloadPath.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest);
+        } catch (NoSuchAlgorithmException e) {
+            // There is no version of Android that doesn't support SHA-256.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private @NonNull File getDataFile(@NonNull String key) {
+        return new File(dir, key + SUFFIX_DATA);
+    }
+
+    private @NonNull File getMetaFile(@NonNull String key) {
+        return new File(dir, key + SUFFIX_META);
+    }
+
+    private static @NonNull JSONObject createMetadata(@NonNull MStoreObject object)
+            throws JSONException {
+        return new JSONObject()
+                .put(KEY_PAYLOAD_PATH, object.payloadPath)
+                .put(KEY_PAYLOAD_SIZE, object.payloadSize)
+                .putOpt(KEY_CONTENT_TYPE, object.payloadContentType);
+    }
+
+    /**
+     * Check that a cached entry belongs to the specified object and is still up to date.
+     */
+    private boolean isValid(@NonNull String key, @NonNull MStoreObject object) {
+        final String data;
+        try {
+            data = Files.readString(getMetaFile(key).toPath(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            return false;
+        }
+
+        try {
+            final var meta = new JSONObject(data);
+
+            return object.payloadPath.equals(meta.getString(KEY_PAYLOAD_PATH))
+                    && object.payloadSize == meta.getLong(KEY_PAYLOAD_SIZE)
+                    && Objects.equals(object.payloadContentType,
+                            meta.optString(KEY_CONTENT_TYPE, null))
+                    && getDataFile(key).length() == object.payloadSize;
+        } catch (JSONException e) {
+            return false;
+        }
+    }
+
+    private void removeEntry(@NonNull String key) throws IOException {
+        final var size = entries.remove(key);
+        if (size != null) {
+            totalBytes -= size;
+        }
+
+        Files.deleteIfExists(getMetaFile(key).toPath());
+        Files.deleteIfExists(getDataFile(key).toPath());
+    }
+
+    private void evict() throws IOException {
+        final var it = entries.entrySet().iterator();
+
+        while (totalBytes > maxBytes && it.hasNext()) {
+            final var entry = it.next();
+            it.remove();
+            totalBytes -= entry.getValue();
+
+            Files.deleteIfExists(getMetaFile(entry.getKey()).toPath());
+            Files.deleteIfExists(getDataFile(entry.getKey()).toPath());
+        }
+    }
+
+    /**
+     * Open the cached payload for an object.
+     *
+     * @return A stream backed by a {@link FileChannel} or null if the payload is not cached or the
+     *         cached copy does not match the object's metadata.
+     */
+    public synchronized @Nullable InputStream get(@NonNull MStoreObject object) throws IOException {
+        final var key = getKey(Objects.requireNonNull(object.payloadPath));
+
+        // This also marks the entry as recently used.
+        if (entries.get(key) == null) {
+            return null;
+        } else if (!isValid(key, object)) {
+            removeEntry(key);
+            return null;
+        }
+
+        final var file = getDataFile(key);
+        final FileChannel channel;
+        try {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            removeEntry(key);
+            return null;
+        }
+
+        // Persist the access order for the next time the cache is opened.
+        file.setLastModified(System.currentTimeMillis());
+
+        // If the entry is evicted while the stream is open, the data remains readable until the
+        // channel is closed.
+        return Channels.newInputStream(channel);
+    }
+
+    /**
+     * Store the payload for an object. The data is fully read, but not closed.
+     *
+     * @return A stream for reading the cached payload.
+     * @throws MStoreException if the amount of data does not match the object's payload size. The
+     *                         data is not cached in this case.
+     */
+    public @NonNull InputStream put(@NonNull MStoreObject object, @NonNull InputStream data)
+            throws MStoreException, IOException {
+        final var key = getKey(Objects.requireNonNull(object.payloadPath));
+        final var tempId = UUID.randomUUID().toString();
+        final var tempData = new File(dir, key + "." + tempId + SUFFIX_DATA + SUFFIX_TEMP);
+        final var tempMeta = new File(dir, key + "." + tempId + SUFFIX_META + SUFFIX_TEMP);
+
+        try {
+            long size = 0;
+
+            // Written outside of the lock since this may be reading from the network.
+            try (var output = new FileOutputStream(tempData)) {
+                final var buf = new byte[BUFFER_SIZE];
+                int n;
+
+                while ((n = data.read(buf)) > 0) {
+                    output.write(buf, 0, n);
+                    size += n;
+                }
+
+                output.getFD().sync();
+            }
+
+            if (size != object.payloadSize) {
+                throw new MStoreException("Payload size mismatch for " + object.payloadPath
+                        + ": expected " + object.payloadSize + ", but got " + size);
+            }
+
+            try {
+                Files.writeString(tempMeta.toPath(), createMetadata(object).toString(),
+                        StandardCharsets.UTF_8);
+            } catch (JSONException e) {
+                throw new IOException("Failed to serialize cache metadata", e);
+            }
+
+            final var dataFile = getDataFile(key);
+
+            synchronized (this) {
+                removeEntry(key);
+
+                // The metadata file is moved last since it marks the entry as complete.
+                Files.move(tempData.toPath(), dataFile.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                Files.move(tempMeta.toPath(), getMetaFile(key).toPath(),
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+                entries.put(key, size);
+                totalBytes += size;
+
+                // Open before evicting in case the payload alone exceeds the budget.
+                final var channel = FileChannel.open(dataFile.toPath(), StandardOpenOption.READ);
+                try {
+                    evict();
+                } catch (IOException e) {
+                    channel.close();
+                    throw e;
+                }
+
+                return Channels.newInputStream(channel);
+            }
+        } finally {
+            Files.deleteIfExists(tempData.toPath());
+            Files.deleteIfExists(tempMeta.toPath());
+        }
+    }
+
+    /**
+     * Open the payload for an object, downloading and caching it if it is not already cached.
+     */
+    public @NonNull InputStream download(@NonNull MStoreClient client,
+            @NonNull MStoreObject object) throws MStoreException, IOException {
+        final var cached = get(object);
+        if (cached != null) {
+            return cached;
+        }
+
+        try (var stream = client.downloadObject(object)) {
+            return put(object, stream);
+        }
+    }
+
+    /**
+     * Remove the cached payload for an object, if any.
+     */
+    public synchronized void remove(@NonNull String payloadPath) throws IOException {
+        removeEntry(getKey(payloadPath));
+    }
+
+    /**
+     * Remove all cached payloads.
+     */
+    public synchronized void clear() throws IOException {
+        for (var key : new ArrayList<>(entries.keySet())) {
+            removeEntry(key);
+        }
+    }
+
+    /**
+     * Total size of the cached payloads in bytes.
+     */
+    public synchronized long getSize() {
+        return totalBytes;
+    }
+}
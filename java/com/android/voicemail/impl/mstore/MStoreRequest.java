@@ -0,0 +1,69 @@
+/*
+ * Copyright 2024 Andrew Gunnerson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.voicemail.impl.mstore;
+
+import android.annotation.NonNull;
+import android.annotation.Nullable;
+
+import java.net.URL;
+import java.util.LinkedHashMap;
+
+/**
+ * A type that represents a single HTTP request to be sent by an {@link MStoreTransport}.
+ */
+public class MStoreRequest {
+    /** Request URL. This is sent as-is and must already be URL-encoded. */
+    @NonNull
+    public final URL url;
+
+    /** HTTP request method. */
+    @NonNull
+    public final String method;
+
+    /** Request headers, in the order they should be sent. */
+    @NonNull
+    public final LinkedHashMap<String, String> headers = new LinkedHashMap<>();
+
+    /** Request body (if any). */
+    @Nullable
+    public final MStoreRequestBody body;
+
+    /**
+     * Timings of the API request that this HTTP request is a part of (if any). Transports that can
+     * measure connection setup add the durations of the DNS lookup, TCP connection, and TLS
+     * handshake to this.
+     */
+    @Nullable
+    public MStoreRequestTimings timings;
+
+    public MStoreRequest(@NonNull URL url, @NonNull String method,
+            @Nullable MStoreRequestBody body) {
+        this.url = url;
+        this.method = method;
+        this.body = body;
+    }
+
+    /**
+     * Set a request header, replacing any existing value. Null values are ignored.
+     */
+    public @NonNull MStoreRequest setHeader(@NonNull String name, @Nullable String value) {
+        if (value != null) {
+            headers.put(name, value);
+        }
+        return this;
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2024 Andrew Gunnerson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.voicemail.impl.mstore;
+
+import android.annotation.NonNull;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * The body of an {@link MStoreRequest}. The length must be known upfront so that it can be sent in
+ * the Content-Length header and the body can be streamed instead of buffered by the transport.
+ *
+ * A body may be written more than once, for example if a request needs to be retried after an
+ * authentication failure. Every call to {@link #writeTo(OutputStream)} must produce the same bytes.
+ */
+public interface MStoreRequestBody {
+    /**
+     * The exact number of bytes that {@link #writeTo(OutputStream)} will write.
+     */
+    long getContentLength();
+
+    /**
+     * Write the entire body to the specified stream. The stream is not closed.
+     */
+    void writeTo(@NonNull OutputStream output) throws IOException;
+
+    /**
+     * Create a body from a byte array. The array is not copied.
+     */
+    static @NonNull MStoreRequestBody of(@NonNull byte[] data) {
+        return new MStoreRequestBody() {
+            @Override
+            public long getContentLength() {
+                return data.length;
+            }
+
+            @Override
+            public void writeTo(@NonNull OutputStream output) throws IOException {
+                output.write(data);
+            }
+        };
+    }
+
+    /**
+     * Create a body that consists of several bodies written one after another.
+     */
+    static @NonNull MStoreRequestBody concat(@NonNull MStoreRequestBody... parts) {
+        long length = 0;
+        for (var part : parts) {
+            length = Math.addExact(length, part.getContentLength());
+        }
+        final var totalLength = length;
+
+        return new MStoreRequestBody() {
+            @Override
+            public long getContentLength() {
+                return totalLength;
+            }
+
+            @Override
+            public void writeTo(@NonNull OutputStream output) throws IOException {
+                for (var part : parts) {
+                    part.writeTo(output);
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2024 Andrew Gunnerson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.voicemail.impl.mstore;
+
+import android.annotation.NonNull;
+
+import java.net.URL;
+import java.util.Locale;
+
+/**
+ * Breakdown of where the time went for a single API request, including its digest auth challenge
+ * and GBA bootstrap. All durations are in nanoseconds and are 0 if the phase did not happen.
+ *
+ * The phases are exclusive of each other, except that GBA bootstrapping runs concurrently with the
+ * challenge round trip. {@link #gbaNanos} is the full bootstrap time, while {@link #gbaWaitNanos}
+ * is the part of it that the request was actually blocked on.
+ */
+public class MStoreRequestTimings {
+    /** HTTP method of the request. */
+    @NonNull
+    public final String method;
+
+    /** URL of the request. */
+    @NonNull
+    public final URL url;
+
+    /** HTTP status code of the final response or -1 if the request failed. */
+    public int responseCode = -1;
+
+    /** Number of HTTP requests sent, including unauthenticated requests and retries. */
+    public int exchanges;
+
+    /**
+     * Time spent resolving the hostname. This and the other connection setup phases are only
+     * measured by {@link MStoreSocketTransport}. With other transports, connection setup is
+     * included in {@link #challengeNanos} and {@link #ttfbNanos}.
+     */
+    public long dnsNanos;
+
+    /** Time spent establishing TCP connections. */
+    public long connectNanos;
+
+    /** Time spent on TLS handshakes. */
+    public long tlsNanos;
+
+    /** Time spent on requests whose only purpose was obtaining a digest auth challenge. */
+    public long challengeNanos;
+
+    /**
+     * Time that the GBA bootstraps whose keys were used took, from the request to the SIM until
+     * the keys arrived.
+     */
+    public long gbaNanos;
+
+    /** Time spent blocked waiting for GBA bootstrapping to complete. */
+    public long gbaWaitNanos;
+
+    /** Time spent computing the digest auth response. */
+    public long digestNanos;
+
+    /**
+     * Time from sending the authenticated request, including its body, until the status line and
+     * headers of the response were received.
+     */
+    public long ttfbNanos;
+
+    /** Time spent blocked reading the response body. */
+    public long bodyNanos;
+
+    /** Number of response body bytes read. */
+    public long bodyBytes;
+
+    /**
+     * Time spent parsing the response. For search results, which are parsed while they are being
+     * read, this excludes the time blocked on the network.
+     */
+    public long parseNanos;
+
+    /** Time from the start of the request until the response was closed. */
+    public long totalNanos;
+
+    MStoreRequestTimings(@NonNull String method, @NonNull URL url) {
+        this.method = method;
+        this.url = url;
+    }
+
+    /**
+     * A monotonic clock that excludes connection setup time. The difference between two readings
+     * is the time spent in between, minus any DNS lookups, TCP connections, and TLS handshakes.
+     */
+    long getClockExcludingSetup() {
+        return System.nanoTime() - dnsNanos - connectNanos - tlsNanos;
+    }
+
+    private static @NonNull String formatMs(long nanos) {
+        return String.format(Locale.ROOT, "%.1fms", nanos / 1_000_000.0);
+    }
+
+    @Override
+    public @NonNull String toString() {
+        return method + " " + url.getPath() + " " + responseCode
+                + ": total=" + formatMs(totalNanos)
+                + " exchanges=" + exchanges
+                + " dns=" + formatMs(dnsNanos)
+                + " connect=" + formatMs(connectNanos)
+                + " tls=" + formatMs(tlsNanos)
+                + " challenge=" + formatMs(challengeNanos)
+                + " gba=" + formatMs(gbaNanos)
+                + " gba_wait=" + formatMs(gbaWaitNanos)
+                + " digest=" + formatMs(digestNanos)
+                + " ttfb=" + formatMs(ttfbNanos)
+                + " body=" + formatMs(bodyNanos) + "/" + bodyBytes + "B"
+                + " parse=" + formatMs(parseNanos);
+    }
+}
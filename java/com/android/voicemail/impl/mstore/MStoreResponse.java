@@ -0,0 +1,61 @@
+/*
+ * Copyright 2024 Andrew Gunnerson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.voicemail.impl.mstore;
+
+import android.annotation.NonNull;
+import android.annotation.Nullable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+
+/**
+ * A response returned by an {@link MStoreTransport}. The status line and headers are available
+ * immediately. The body is streamed on demand. Closing the response disconnects the underlying
+ * connection, even if the body has not been fully read.
+ */
+public interface MStoreResponse extends Closeable {
+    /** URL of the request that produced this response. */
+    @NonNull
+    URL getUrl();
+
+    /** HTTP method of the request that produced this response. */
+    @NonNull
+    String getRequestMethod();
+
+    /** HTTP status code. */
+    int getResponseCode() throws IOException;
+
+    /** HTTP status message. */
+    @Nullable
+    String getResponseMessage() throws IOException;
+
+    /**
+     * Get the value of a response header. Header names are case-insensitive. If the header appears
+     * multiple times, the last value is returned.
+     */
+    @Nullable
+    String getHeaderField(@NonNull String name) throws IOException;
+
+    /**
+     * Get the response body. This is available regardless of the status code. If there is no body,
+     * an empty stream is returned. Closing the stream also closes the response.
+     */
+    @NonNull
+    InputStream getBody() throws IOException;
+}
@@ -0,0 +1,278 @@
+/*
+ * Copyright 2024 Andrew Gunnerson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.voicemail.impl.mstore;
+
+import android.annotation.NonNull;
+import android.annotation.Nullable;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.time.Instant;
+import java.util.LinkedHashSet;
+
+/**
+ * Criteria for searching the objects in a folder.
+ *
+ * The search query language is not documented. The criteria are sent to the server in the format
+ * used by the OMA Network Message Storage API, which the mstore API is based on, but which
+ * operators the relay actually supports has not been verified. {@code tmovvm debug probe-search}
+ * can be used to test them against a real mailbox. To keep the results correct even if the server
+ * ignores or misinterprets a criterion, every object returned by the server is also checked against
+ * the criteria on the client by default. The server-side filtering only reduces the amount of data
+ * that has to be transferred.
+ *
+ * Sorting cannot be emulated on the client. If the server ignores the sort order, objects are
+ * returned newest first.
+ */
+public class MStoreSearchCriteria {
+    /** Sort order of the results by creation date. */
+    public enum SortOrder {
+        ASCENDING,
+        DESCENDING,
+    }
+
+    private final @NonNull String folder;
+    private final @NonNull LinkedHashSet<String> requiredFlags = new LinkedHashSet<>();
+    private final @NonNull LinkedHashSet<String> excludedFlags = new LinkedHashSet<>();
+    private @Nullable Instant createdFrom;
+    private @Nullable Instant createdUntil;
+    private @Nullable String sender;
+    private @NonNull SortOrder sortOrder = SortOrder.DESCENDING;
+    private int maxEntries = 0;
+    private boolean serverSideFiltering = true;
+    private boolean clientSideFiltering = true;
+
+    /**
+     * Create criteria that match every object in a folder, newest first.
+     */
+    public MStoreSearchCriteria(@NonNull String folder) {
+        this.folder = folder;
+    }
+
+    /**
+     * Only match objects that have the specified flag set.
+     */
+    public @NonNull MStoreSearchCriteria withFlag(@NonNull String flag) {
+        excludedFlags.remove(flag);
+        requiredFlags.add(flag);
+        return this;
+    }
+
+    /**
+     * Only match objects that do not have the specified flag set.
+     */
+    public @NonNull MStoreSearchCriteria withoutFlag(@NonNull String flag) {
+        requiredFlags.remove(flag);
+        excludedFlags.add(flag);
+        return this;
+    }
+
+    /**
+     * Only match objects created in the specified range.
+     *
+     * @param from Inclusive lower bound or null for no lower bound.
+     * @param until Exclusive upper bound or null for no upper bound.
+     */
+    public @NonNull MStoreSearchCriteria setDateRange(@Nullable Instant from,
+            @Nullable Instant until) {
+        createdFrom = from;
+        createdUntil = until;
+        return this;
+    }
+
+    /**
+     * Only match objects whose {@code from} attribute is exactly the specified value, or null to
+     * match any sender.
+     */
+    public @NonNull MStoreSearchCriteria setSender(@Nullable String sender) {
+        this.sender = sender;
+        return this;
+    }
+
+    /**
+     * Set the order of the results by creation date. The default is {@link SortOrder#DESCENDING}.
+     */
+    public @NonNull MStoreSearchCriteria setSortOrder(@NonNull SortOrder sortOrder) {
+        this.sortOrder = sortOrder;
+        return this;
+    }
+
+    /**
+     * Set the number of objects requested per page. This takes precedence over the page size in
+     * {@link MStoreListOptions}. Set to 0 to use the list options.
+     */
+    public @NonNull MStoreSearchCriteria setMaxEntries(int maxEntries) {
+        if (maxEntries < 0) {
+            throw new IllegalArgumentException("Invalid max entries: " + maxEntries);
+        }
+
+        this.maxEntries = maxEntries;
+        return this;
+    }
+
+    /**
+     * Set whether the filters are sent to the server. If disabled, the server returns every object
+     * in the folder and filtering is done on the client only.
+     */
+    public @NonNull MStoreSearchCriteria setServerSideFiltering(boolean enabled) {
+        serverSideFiltering = enabled;
+        return this;
+    }
+
+    /**
+     * Set whether objects returned by the server are checked against the criteria on the client.
+     * This should only be disabled for testing what the server supports.
+     */
+    public @NonNull MStoreSearchCriteria setClientSideFiltering(boolean enabled) {
+        clientSideFiltering = enabled;
+        return this;
+    }
+
+    /** Folder to search. */
+    public @NonNull String getFolder() {
+        return folder;
+    }
+
+    /** Sort order of the results. */
+    public @NonNull SortOrder getSortOrder() {
+        return sortOrder;
+    }
+
+    /** Number of objects requested per page or 0 to use the list options. */
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * Whether any filters are set. Sorting and page size are not filters.
+     */
+    public boolean hasFilters() {
+        return !requiredFlags.isEmpty() || !excludedFlags.isEmpty() || createdFrom != null
+                || createdUntil != null || sender != null;
+    }
+
+    /**
+     * Whether objects returned by the server need to be checked on the client.
+     */
+    boolean needsClientSideFiltering() {
+        return clientSideFiltering && hasFilters();
+    }
+
+    /**
+     * Check whether an object matches the filters. This is the client-side equivalent of the
+     * server-side search.
+     */
+    public boolean matches(@NonNull MStoreObject object) {
+        if (!object.flags.containsAll(requiredFlags)) {
+            return false;
+        }
+        for (var flag : excludedFlags) {
+            if (object.flags.contains(flag)) {
+                return false;
+            }
+        }
+
+        if (createdFrom != null || createdUntil != null) {
+            final var timestamp = object.creationTimestamp;
+            if (timestamp == null
+                    || (createdFrom != null && timestamp.isBefore(createdFrom))
+                    || (createdUntil != null && !timestamp.isBefore(createdUntil))) {
+                return false;
+            }
+        }
+
+        return sender == null || sender.equals(object.fromNumber);
+    }
+
+    /**
+     * Create the {@code selectionCriteria} request body for one page of results.
+     *
+     * Objects in the trash are always excluded. Without filters, this is the query that the
+     * official clients send. The filters are added as an {@code And} group with the exclusions
+     * nested inside it as a {@code Not} group.
+     */
+    @NonNull
+    JSONObject toJson(@NonNull String folderUrl, int maxEntries, @Nullable String fromCursor)
+            throws JSONException {
+        final var exclusions = new JSONArray()
+                .put(new JSONObject()
+                        .put("type", "PurgedObject")
+                        .put("value", "")
+                );
+        final var inclusions = new JSONArray();
+
+        if (serverSideFiltering) {
+            for (var flag : excludedFlags) {
+                exclusions.put(new JSONObject()
+                        .put("type", "Flag")
+                        .put("value", flag)
+                );
+            }
+            for (var flag : requiredFlags) {
+                inclusions.put(new JSONObject()
+                        .put("type", "Flag")
+                        .put("value", flag)
+                );
+            }
+            if (createdFrom != null || createdUntil != null) {
+                inclusions.put(new JSONObject()
+                        .put("type", "Date")
+                        .put("value", (createdFrom != null ? createdFrom.toString() : "") + ","
+                                + (createdUntil != null ? createdUntil.toString() : ""))
+                );
+            }
+            if (sender != null) {
+                inclusions.put(new JSONObject()
+                        .put("type", "Attribute")
+                        .put("name", "from")
+                        .put("value", sender)
+                );
+            }
+        }
+
+        var searchCriteria = new JSONObject()
+                .put("operator", "Not")
+                .put("criterion", exclusions);
+        if (inclusions.length() > 0) {
+            searchCriteria = new JSONObject()
+                    .put("operator", "And")
+                    .put("criterion", inclusions)
+                    .put("searchCriteria", searchCriteria);
+        }
+
+        return new JSONObject()
+                .put("selectionCriteria", new JSONObject()
+                        .put("maxEntries", maxEntries)
+                        .putOpt("fromCursor", fromCursor)
+                        .put("searchScope", new JSONObject()
+                                .put("resourceURL", folderUrl)
+                        )
+                        .put("searchCriteria", searchCriteria)
+                        .put("sortCriteria", new JSONObject()
+                                .put("criterion", new JSONArray()
+                                        .put(new JSONObject()
+                                                .put("type", "Date")
+                                                .put("order", sortOrder == SortOrder.ASCENDING
+                                                        ? "Ascending" : "Descending")
+                                        )
+                                )
+                        )
+                );
+    }
+}
@@ -0,0 +1,407 @@
+/*
+ * Copyright 2024 Andrew Gunnerson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.voicemail.impl.mstore;
+
+import android.annotation.NonNull;
+import android.annotation.Nullable;
+import android.net.Network;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.TreeMap;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SNIHostName;
+import javax.net.ssl.SSLPeerUnverifiedException;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * Minimal HTTP/1.0 transport on top of raw sockets. The mstore relay does not support anything
+ * newer than HTTP/1.0 and requires a new connection for every request, so there is no need for
+ * connection pooling, chunked encoding, or keepalive. Unlike {@link MStoreUrlConnectionTransport},
+ * this does not create any background threads.
+ */
+public class MStoreSocketTransport implements MStoreTransport {
+    private static final int TIMEOUT_CONNECT_MS = 10 * 1000;
+    private static final int TIMEOUT_READ_MS = 60 * 1000;
+
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    /** Upper bound for the status line and each header line to avoid unbounded buffering. */
+    private static final int MAX_LINE_LENGTH = 16 * 1024;
+
+    private final @NonNull Network network;
+
+    /**
+     * Create a new transport.
+     *
+     * @param network All connections are opened on this network.
+     */
+    public MStoreSocketTransport(@NonNull Network network) {
+        this.network = network;
+    }
+
+    /**
+     * Open a TCP connection to the first reachable address for the host, performing the DNS lookup
+     * on the target network. The time spent on the lookup and the connection attempts is added to
+     * the timings, if any.
+     */
+    private @NonNull Socket connect(@NonNull String host, int port,
+            @Nullable MStoreRequestTimings timings) throws IOException {
+        IOException lastException = null;
+
+        final var dnsStart = System.nanoTime();
+        final var addresses = network.getAllByName(host);
+        if (timings != null) {
+            timings.dnsNanos += System.nanoTime() - dnsStart;
+        }
+
+        for (var address : addresses) {
+            final var socket = network.getSocketFactory().createSocket();
+            final var connectStart = System.nanoTime();
+
+            try {
+                socket.connect(new InetSocketAddress(address, port), TIMEOUT_CONNECT_MS);
+                return socket;
+            } catch (IOException e) {
+                socket.close();
+                if (lastException != null) {
+                    e.addSuppressed(lastException);
+                }
+                lastException = e;
+            } finally {
+                if (timings != null) {
+                    timings.connectNanos += System.nanoTime() - connectStart;
+                }
+            }
+        }
+
+        if (lastException != null) {
+            throw lastException;
+        }
+        throw new IOException("No addresses found for " + host);
+    }
+
+    /**
+     * Layer TLS on top of an existing socket and verify the server's hostname.
+     */
+    private static @NonNull SSLSocket startTls(@NonNull Socket socket, @NonNull String host,
+            int port) throws IOException {
+        final var factory = (SSLSocketFactory) SSLSocketFactory.getDefault();
+        final var sslSocket = (SSLSocket) factory.createSocket(socket, host, port, true);
+
+        final var params = sslSocket.getSSLParameters();
+        params.setServerNames(Collections.singletonList(new SNIHostName(host)));
+        sslSocket.setSSLParameters(params);
+
+        sslSocket.startHandshake();
+
+        if (!HttpsURLConnection.getDefaultHostnameVerifier().verify(host, sslSocket.getSession())) {
+            sslSocket.close();
+            throw new SSLPeerUnverifiedException("Hostname verification failed for " + host);
+        }
+
+        return sslSocket;
+    }
+
+    private static @NonNull byte[] formatRequestHead(@NonNull MStoreRequest request) {
+        final var url = request.url;
+        final var sb = new StringBuilder();
+
+        var target = url.getFile();
+        if (target.isEmpty()) {
+            target = "/";
+        }
+
+        sb.append(request.method).append(' ').append(target).append(" HTTP/1.0\r\n");
+        sb.append("Host: ").append(url.getHost());
+        if (url.getPort() != -1 && url.getPort() != url.getDefaultPort()) {
+            sb.append(':').append(url.getPort());
+        }
+        sb.append("\r\n");
+
+        for (var entry : request.headers.entrySet()) {
+            sb.append(entry.getKey()).append(": ").append(entry.getValue()).append("\r\n");
+        }
+
+        if (request.body != null) {
+            sb.append("Content-Length: ").append(request.body.getContentLength()).append("\r\n");
+        }
+
+        sb.append("\r\n");
+
+        return sb.toString().getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Read a single CRLF or LF terminated line. The line terminator is not included.
+     */
+    private static @NonNull String readLine(@NonNull InputStream stream) throws IOException {
+        final var buf = new ByteArrayOutputStream();
+
+        while (true) {
+            final var c = stream.read();
+            if (c == -1) {
+                throw new EOFException("Connection closed while reading response head");
+            } else if (c == '\n') {
+                break;
+            } else if (buf.size() >= MAX_LINE_LENGTH) {
+                throw new ProtocolException("Response header line too long");
+            }
+
+            buf.write(c);
+        }
+
+        var line = buf.toString(StandardCharsets.ISO_8859_1);
+        if (line.endsWith("\r")) {
+            line = line.substring(0, line.length() - 1);
+        }
+
+        return line;
+    }
+
+    @Override
+    public @NonNull MStoreResponse send(@NonNull MStoreRequest request) throws IOException {
+        final var url = request.url;
+        final var host = url.getHost();
+        final var port = url.getPort() != -1 ? url.getPort() : url.getDefaultPort();
+
+        final var isHttps = switch (url.getProtocol()) {
+            case "https" -> true;
+            case "http" -> false;
+            default -> throw new ProtocolException("Unsupported scheme: " + url.getProtocol());
+        };
+
+        final var timings = request.timings;
+        Socket socket = connect(host, port, timings);
+
+        try {
+            socket.setSoTimeout(TIMEOUT_READ_MS);
+
+            if (isHttps) {
+                final var tlsStart = System.nanoTime();
+                try {
+                    socket = startTls(socket, host, port);
+                } finally {
+                    if (timings != null) {
+                        timings.tlsNanos += System.nanoTime() - tlsStart;
+                    }
+                }
+            }
+
+            final var output = new BufferedOutputStream(socket.getOutputStream(), BUFFER_SIZE);
+            output.write(formatRequestHead(request));
+            if (request.body != null) {
+                request.body.writeTo(output);
+            }
+            output.flush();
+
+            final var input = new BufferedInputStream(socket.getInputStream(), BUFFER_SIZE);
+
+            final var statusLine = readLine(input);
+            final var statusParts = statusLine.split(" ", 3);
+            if (statusParts.length < 2 || !statusParts[0].startsWith("HTTP/")) {
+                throw new ProtocolException("Invalid status line: " + statusLine);
+            }
+
+            final int code;
+            try {
+                code = Integer.parseInt(statusParts[1]);
+            } catch (NumberFormatException e) {
+                throw new ProtocolException("Invalid status code: " + statusLine);
+            }
+            final var message = statusParts.length == 3 ? statusParts[2] : null;
+
+            final var headers = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+            while (true) {
+                final var line = readLine(input);
+                if (line.isEmpty()) {
+                    break;
+                }
+
+                final var colon = line.indexOf(':');
+                if (colon <= 0) {
+                    throw new ProtocolException("Invalid header line: " + line);
+                }
+
+                headers.put(line.substring(0, colon).trim(), line.substring(colon + 1).trim());
+            }
+
+            return new Response(request, socket, input, code, message, headers);
+        } catch (IOException | RuntimeException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    private static class Response implements MStoreResponse {
+        private final @NonNull MStoreRequest request;
+        private final @NonNull Socket socket;
+        private final @NonNull InputStream body;
+        private final int code;
+        private final @Nullable String message;
+        private final @NonNull TreeMap<String, String> headers;
+
+        private Response(@NonNull MStoreRequest request, @NonNull Socket socket,
+                @NonNull InputStream input, int code, @Nullable String message,
+                @NonNull TreeMap<String, String> headers) throws ProtocolException {
+            this.request = request;
+            this.socket = socket;
+            this.code = code;
+            this.message = message;
+            this.headers = headers;
+
+            final var contentLength = headers.get("Content-Length");
+            final InputStream stream;
+
+            if ("HEAD".equals(request.method) || code == 204 || code == 304 || code / 100 == 1) {
+                stream = InputStream.nullInputStream();
+            } else if (contentLength != null) {
+                final long length;
+                try {
+                    length = Long.parseLong(contentLength);
+                } catch (NumberFormatException e) {
+                    throw new ProtocolException("Invalid Content-Length: " + contentLength);
+                }
+                if (length < 0) {
+                    throw new ProtocolException("Invalid Content-Length: " + contentLength);
+                }
+
+                stream = new BoundedInputStream(input, length);
+            } else {
+                // HTTP/1.0 without a length: the body ends when the server closes the connection.
+                stream = input;
+            }
+
+            this.body = new FilterInputStream(stream) {
+                @Override
+                public void close() throws IOException {
+                    Response.this.close();
+                }
+            };
+        }
+
+        @Override
+        public @NonNull URL getUrl() {
+            return request.url;
+        }
+
+        @Override
+        public @NonNull String getRequestMethod() {
+            return request.method;
+        }
+
+        @Override
+        public int getResponseCode() {
+            return code;
+        }
+
+        @Override
+        public @Nullable String getResponseMessage() {
+            return message;
+        }
+
+        @Override
+        public @Nullable String getHeaderField(@NonNull String name) {
+            return headers.get(name);
+        }
+
+        @Override
+        public @NonNull InputStream getBody() {
+            return body;
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+
+    /**
+     * Stream that reads at most a fixed number of bytes from the underlying stream and reports an
+     * error if the connection is closed early.
+     */
+    private static class BoundedInputStream extends FilterInputStream {
+        private long remaining;
+
+        private BoundedInputStream(@NonNull InputStream in, long length) {
+            super(in);
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining == 0) {
+                return -1;
+            }
+
+            final var c = super.read();
+            if (c == -1) {
+                throw new EOFException("Connection closed with " + remaining + " bytes remaining");
+            }
+            remaining--;
+
+            return c;
+        }
+
+        @Override
+        public int read(@NonNull byte[] b, int off, int len) throws IOException {
+            if (remaining == 0) {
+                return -1;
+            } else if (len == 0) {
+                return 0;
+            }
+
+            final var n = super.read(b, off, (int) Math.min(len, remaining));
+            if (n == -1) {
+                throw new EOFException("Connection closed with " + remaining + " bytes remaining");
+            }
+            remaining -= n;
+
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            final var skipped = super.skip(Math.min(n, remaining));
+            remaining -= skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(super.available(), remaining);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,268 @@
+/*
+ * Copyright 2024 Andrew Gunnerson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.voicemail.impl.mstore;
+
+import android.annotation.NonNull;
+import android.annotation.Nullable;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Keeps track of the objects in a folder across syncs so that only new objects need to be fetched.
+ *
+ * Search results are sorted by creation date in descending order, so an incremental sync stops
+ * paginating as soon as it reaches an object older than the newest known object (the watermark).
+ * Known objects that are not older than the watermark, but are missing from the listing, were
+ * deleted. Deletions of older objects cannot be detected this way. Instead, the folder's object
+ * count from the quota API is compared against the count implied by the incremental listing and
+ * only if they disagree is the entire folder listed again. Because every object in the listed range
+ * is accounted for, a deletion combined with the addition of a new object still changes the count.
+ * The API exposes neither modification times nor a change token for folders, so the only case that
+ * goes unnoticed is a deletion combined with the addition of an object whose creation timestamp is
+ * older than the watermark. That, as well as flag changes on older objects, is only picked up by
+ * full listings, which can be requested explicitly.
+ *
+ * The known objects for each folder are persisted in a {@link MStoreMetadataStore} in the specified
+ * directory, which can also be used to show the folder's contents without going online. If the
+ * store is empty, the next sync performs a full listing.
+ */
+public class MStoreSyncEngine implements Closeable {
+    private final @NonNull MStoreClient client;
+    private final @NonNull File stateDir;
+    private final @NonNull HashMap<String, MStoreMetadataStore> stores = new HashMap<>();
+
+    /**
+     * @param stateDir Directory for storing the sync state. It is created if needed.
+     */
+    public MStoreSyncEngine(@NonNull MStoreClient client, @NonNull File stateDir) {
+        this.client = client;
+        this.stateDir = stateDir;
+    }
+
+    /**
+     * Get the local copy of the objects in a folder as of the last sync.
+     */
+    public synchronized @NonNull MStoreMetadataStore getStore(@NonNull String folder)
+            throws IOException {
+        var store = stores.get(folder);
+        if (store == null) {
+            store = new MStoreMetadataStore(new File(stateDir, "objects-" + folder + ".log"));
+            stores.put(folder, store);
+        }
+
+        return store;
+    }
+
+    /**
+     * Get the object count for a folder from the quota API or null if it is not reported.
+     */
+    private static @Nullable Integer getObjectCount(@NonNull String folder,
+            @NonNull MStoreQuota quota) {
+        return switch (folder) {
+            case MStoreClient.FOLDER_VOICEMAILS -> quota.voicemailsCount;
+            case MStoreClient.FOLDER_GREETINGS -> quota.greetingsCount;
+            default -> null;
+        };
+    }
+
+    private static boolean flagsEqual(@NonNull List<String> a, @NonNull List<String> b) {
+        return new HashSet<>(a).equals(new HashSet<>(b));
+    }
+
+    /**
+     * Compare a listed object against the local copy and record it in the result if it changed.
+     */
+    private static void diffObject(@NonNull MStoreMetadataStore store,
+            @NonNull MStoreObject object, @NonNull MStoreSyncResult result) {
+        final var oldObject = store.get(object.objectPath);
+        if (oldObject == null) {
+            result.added.add(object);
+        } else if (!flagsEqual(oldObject.flags, object.flags)) {
+            result.flagsChanged.add(object);
+        }
+    }
+
+    /**
+     * List objects that are not older than the watermark. Known objects in that range are checked
+     * for flag changes and are reported as removed if they are no longer listed.
+     */
+    private void syncIncremental(@NonNull String folder, @NonNull MStoreMetadataStore store,
+            @NonNull Instant watermark, @NonNull MStoreSyncResult result)
+            throws MStoreException, IOException {
+        final var options = new MStoreListOptions();
+        // Usually, only a handful of objects are new.
+        options.adaptivePageSize = true;
+
+        final var seen = new HashSet<String>();
+
+        try (final var iterator = client.listFolder(folder, options)) {
+            while (iterator.hasNext()) {
+                final var object = iterator.next();
+
+                // Objects with the same timestamp as the watermark may or may not have been seen,
+                // so only strictly older objects end the sync.
+                if (object.creationTimestamp != null
+                        && object.creationTimestamp.isBefore(watermark)) {
+                    break;
+                } else if (object.objectPath != null) {
+                    seen.add(object.objectPath);
+                    diffObject(store, object, result);
+                }
+            }
+        } catch (UncheckedMStoreException e) {
+            throw e.getCause();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        for (var object : store.getAll()) {
+            if (object.creationTimestamp != null && object.creationTimestamp.isBefore(watermark)) {
+                // The store is sorted newest first.
+                break;
+            } else if (!seen.contains(object.objectPath)) {
+                result.removed.add(object.objectPath);
+            }
+        }
+    }
+
+    /**
+     * List every object in the folder and compare against the known objects.
+     */
+    private void syncFull(@NonNull String folder, @NonNull MStoreMetadataStore store,
+            @NonNull MStoreSyncResult result) throws MStoreException, IOException {
+        final var options = new MStoreListOptions();
+        options.adaptivePageSize = true;
+        options.prefetchDepth = 1;
+
+        final var seen = new HashSet<String>();
+
+        try (final var iterator = client.listFolder(folder, options)) {
+            while (iterator.hasNext()) {
+                final var object = iterator.next();
+
+                if (object.objectPath != null) {
+                    seen.add(object.objectPath);
+                    diffObject(store, object, result);
+                }
+            }
+        } catch (UncheckedMStoreException e) {
+            throw e.getCause();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        for (var object : store.getAll()) {
+            if (!seen.contains(object.objectPath)) {
+                result.removed.add(object.objectPath);
+            }
+        }
+
+        result.fullListing = true;
+    }
+
+    /**
+     * Sync a folder, listing only the new objects if possible.
+     */
+    public @NonNull MStoreSyncResult sync(@NonNull String folder)
+            throws MStoreException, IOException {
+        return sync(folder, false);
+    }
+
+    /**
+     * Sync a folder and persist the changes.
+     *
+     * @param forceFull List the entire folder even if an incremental sync would suffice. This is
+     *                  the only way to detect flag changes on older objects.
+     */
+    public synchronized @NonNull MStoreSyncResult sync(@NonNull String folder, boolean forceFull)
+            throws MStoreException, IOException {
+        final var store = getStore(folder);
+        final var known = store.getAll();
+        MStoreSyncResult result = null;
+
+        // The store is sorted newest first.
+        final var watermark = known.isEmpty() ? null : known.get(0).creationTimestamp;
+
+        if (!forceFull && watermark != null) {
+            final var incremental = new MStoreSyncResult();
+            syncIncremental(folder, store, watermark, incremental);
+
+            // Otherwise, objects older than the watermark were deleted or objects were added with
+            // an older timestamp. The full listing reports everything, so the results from the
+            // incremental sync are discarded.
+            final var expected = getObjectCount(folder, client.getQuota(folder));
+            final var actual = store.size() - incremental.removed.size()
+                    + incremental.added.size();
+            if (expected != null && expected == actual) {
+                result = incremental;
+            }
+        }
+
+        if (result == null) {
+            result = new MStoreSyncResult();
+            syncFull(folder, store, result);
+        }
+
+        final var changed = new ArrayList<MStoreObject>(
+                result.added.size() + result.flagsChanged.size());
+        changed.addAll(result.added);
+        changed.addAll(result.flagsChanged);
+
+        store.putAll(changed);
+        store.removeAll(result.removed);
+
+        return result;
+    }
+
+    /**
+     * Forget everything known about a folder. The next sync will perform a full listing.
+     */
+    public synchronized void reset(@NonNull String folder) throws IOException {
+        getStore(folder).clear();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        IOException exception = null;
+
+        for (var store : stores.values()) {
+            try {
+                store.close();
+            } catch (IOException e) {
+                if (exception == null) {
+                    exception = e;
+                } else {
+                    exception.addSuppressed(e);
+                }
+            }
+        }
+
+        stores.clear();
+
+        if (exception != null) {
+            throw exception;
+        }
+    }
+}
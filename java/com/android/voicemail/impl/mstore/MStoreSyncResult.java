@@ -0,0 +1,52 @@
+/*
+ * Copyright 2024 Andrew Gunnerson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.voicemail.impl.mstore;
+
+import android.annotation.NonNull;
+
+import java.util.ArrayList;
+
+/**
+ * Changes to a folder since the previous sync.
+ */
+public class MStoreSyncResult {
+    /** Objects that are new since the previous sync, sorted by creation date descending. */
+    @NonNull
+    public ArrayList<MStoreObject> added = new ArrayList<>();
+
+    /**
+     * Paths of objects that no longer exist. During an incremental sync, only objects that are
+     * newer than the previous sync's watermark are checked.
+     */
+    @NonNull
+    public ArrayList<String> removed = new ArrayList<>();
+
+    /**
+     * Previously known objects whose flags changed. During an incremental sync, only objects that
+     * are newer than the previous sync's watermark are checked.
+     */
+    @NonNull
+    public ArrayList<MStoreObject> flagsChanged = new ArrayList<>();
+
+    /** Whether the entire folder was listed instead of only the newest objects. */
+    public boolean fullListing;
+
+    /** Whether nothing changed. */
+    public boolean isEmpty() {
+        return added.isEmpty() && removed.isEmpty() && flagsChanged.isEmpty();
+    }
+}
@@ -0,0 +1,31 @@
+/*
+ * Copyright 2024 Andrew Gunnerson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.voicemail.impl.mstore;
+
+import android.annotation.NonNull;
+
+/**
+ * Receives the timings of every API request made by a {@link MStoreClient}.
+ */
+public interface MStoreTimingListener {
+    /**
+     * Called once a request is complete, which is when its response is closed or when it fails.
+     * This is called on whichever thread completed the request, possibly concurrently for
+     * different requests, so implementations must be thread-safe and should return quickly.
+     */
+    void onRequestFinished(@NonNull MStoreRequestTimings timings);
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright 2024 Andrew Gunnerson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.voicemail.impl.mstore;
+
+import android.annotation.NonNull;
+
+import java.io.IOException;
+
+/**
+ * The HTTP engine used by {@link MStoreClient} to send requests. Implementations only need to
+ * support what the mstore relay supports: one request per connection with no keepalive.
+ * Authentication is handled by the client and is not the transport's concern.
+ */
+public interface MStoreTransport {
+    /**
+     * Send a request and wait for the response status line and headers. The caller must close the
+     * returned response.
+     */
+    @NonNull
+    MStoreResponse send(@NonNull MStoreRequest request) throws IOException;
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2024 Andrew Gunnerson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.voicemail.impl.mstore;
+
+import android.annotation.NonNull;
+import android.annotation.Nullable;
+import android.net.Network;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * Transport backed by {@link HttpURLConnection} via {@link Network#openConnection(URL)}. Note that
+ * this creates an "OkHttp ConnectionPool" thread that cannot be stopped.
+ */
+public class MStoreUrlConnectionTransport implements MStoreTransport {
+    private static final int TIMEOUT_CONNECT_MS = 10 * 1000;
+    private static final int TIMEOUT_READ_MS = 60 * 1000;
+
+    private final @NonNull Network network;
+
+    /**
+     * Create a new transport.
+     *
+     * @param network All connections are opened on this network.
+     */
+    public MStoreUrlConnectionTransport(@NonNull Network network) {
+        this.network = network;
+    }
+
+    @Override
+    public @NonNull MStoreResponse send(@NonNull MStoreRequest request) throws IOException {
+        final var connection = (HttpURLConnection) network.openConnection(request.url);
+
+        try {
+            connection.setConnectTimeout(TIMEOUT_CONNECT_MS);
+            connection.setReadTimeout(TIMEOUT_READ_MS);
+            connection.setRequestMethod(request.method);
+            for (var entry : request.headers.entrySet()) {
+                connection.setRequestProperty(entry.getKey(), entry.getValue());
+            }
+            if (request.body != null) {
+                // Stream the body instead of letting HttpURLConnection buffer all of it.
+                connection.setFixedLengthStreamingMode(request.body.getContentLength());
+                connection.setDoOutput(true);
+                try (final var output = connection.getOutputStream()) {
+                    request.body.writeTo(output);
+                }
+            }
+
+            // Force the status line and headers to be read so that I/O errors are reported here.
+            connection.getResponseCode();
+        } catch (IOException e) {
+            connection.disconnect();
+            throw e;
+        }
+
+        return new Response(connection);
+    }
+
+    private static class Response implements MStoreResponse {
+        private final @NonNull HttpURLConnection connection;
+
+        private Response(@NonNull HttpURLConnection connection) {
+            this.connection = connection;
+        }
+
+        @Override
+        public @NonNull URL getUrl() {
+            return connection.getURL();
+        }
+
+        @Override
+        public @NonNull String getRequestMethod() {
+            return connection.getRequestMethod();
+        }
+
+        @Override
+        public int getResponseCode() throws IOException {
+            return connection.getResponseCode();
+        }
+
+        @Override
+        public @Nullable String getResponseMessage() throws IOException {
+            return connection.getResponseMessage();
+        }
+
+        @Override
+        public @Nullable String getHeaderField(@NonNull String name) {
+            return connection.getHeaderField(name);
+        }
+
+        @Override
+        public @NonNull InputStream getBody() throws IOException {
+            InputStream stream = connection.getErrorStream();
+            if (stream == null) {
+                try {
+                    stream = connection.getInputStream();
+                } catch (IOException e) {
+                    // HttpURLConnection throws for error statuses with no body.
+                    if (connection.getResponseCode() >= 400) {
+                        stream = InputStream.nullInputStream();
+                    } else {
+                        throw e;
+                    }
+                }
+            }
+
+            return new FilterInputStream(stream) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        connection.disconnect();
+                    }
+                }
+            };
+        }
+
+        @Override
+        public void close() {
+            // The server does not support keep-alive anyway.
+            connection.disconnect();
+        }
+    }
+}
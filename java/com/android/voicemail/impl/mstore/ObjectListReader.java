@@ -0,0 +1,204 @@
+/*
+ * Copyright 2024 Andrew Gunnerson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.voicemail.impl.mstore;
+
+import android.annotation.NonNull;
+import android.annotation.Nullable;
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.MalformedJsonException;
+
+import org.json.JSONException;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.function.Predicate;
+
+/**
+ * Incremental parser for the {@code objectList} response of a search API query. Objects are decoded
+ * one at a time as they are read from the stream, so memory usage does not depend on the page size.
+ * The cursor is recorded whenever it is encountered, which may be before or after the objects.
+ * Objects can optionally be filtered while reading. Closing this closes the underlying stream.
+ */
+class ObjectListReader implements Closeable {
+    /**
+     * Notified when the entire page has been read.
+     */
+    interface FinishListener {
+        /**
+         * @param count Number of objects in the page.
+         * @param readNanos Time spent blocked in {@link #next()}. This excludes the time that the
+         *                  caller spent processing the objects.
+         * @param cursor Cursor for the next page or null if this is the last page.
+         */
+        void onFinished(int count, long readNanos, @Nullable String cursor);
+    }
+
+    private final @NonNull JsonReader reader;
+    private final @Nullable FinishListener listener;
+    private final @Nullable Predicate<MStoreObject> filter;
+    private int count = 0;
+    private long readNanos = 0;
+    private @Nullable String cursor;
+    private boolean started = false;
+    private boolean inObjectArray = false;
+    private boolean sawObjectArray = false;
+    private boolean finished = false;
+    private boolean notified = false;
+
+    ObjectListReader(@NonNull JsonReader reader) {
+        this(reader, null);
+    }
+
+    ObjectListReader(@NonNull JsonReader reader, @Nullable FinishListener listener) {
+        this(reader, listener, null);
+    }
+
+    /**
+     * @param filter Objects that don't match are skipped. They are still included in the count
+     *               reported to the listener.
+     */
+    ObjectListReader(@NonNull JsonReader reader, @Nullable FinishListener listener,
+            @Nullable Predicate<MStoreObject> filter) {
+        this.reader = reader;
+        this.listener = listener;
+        this.filter = filter;
+    }
+
+    /**
+     * Position the reader inside the {@code objectList} object.
+     */
+    private void start() throws IOException, JSONException {
+        reader.beginObject();
+
+        while (reader.hasNext()) {
+            if ("objectList".equals(reader.nextName())) {
+                reader.beginObject();
+                return;
+            }
+
+            reader.skipValue();
+        }
+
+        throw new JSONException("Missing required field: objectList");
+    }
+
+    /**
+     * Consume the rest of the document after the {@code objectList} object.
+     */
+    private void finish() throws IOException, JSONException {
+        reader.endObject();
+
+        while (reader.hasNext()) {
+            reader.nextName();
+            reader.skipValue();
+        }
+        reader.endObject();
+
+        if (!sawObjectArray) {
+            throw new JSONException("Missing required field: object");
+        }
+
+        finished = true;
+    }
+
+    /**
+     * Read the next object from the list.
+     *
+     * @return The next object or null if there are no more objects in this page.
+     */
+    @Nullable
+    MStoreObject next() throws IOException, JSONException {
+        final var start = System.nanoTime();
+
+        try {
+            if (!started) {
+                started = true;
+                start();
+            }
+
+            while (!finished) {
+                if (inObjectArray) {
+                    if (reader.hasNext()) {
+                        final var object = new MStoreObject(reader);
+                        count++;
+                        if (filter == null || filter.test(object)) {
+                            return object;
+                        }
+                        continue;
+                    }
+
+                    reader.endArray();
+                    inObjectArray = false;
+                } else if (!reader.hasNext()) {
+                    finish();
+                } else {
+                    switch (reader.nextName()) {
+                        case "object" -> {
+                            reader.beginArray();
+                            inObjectArray = true;
+                            sawObjectArray = true;
+                        }
+                        case "cursor" -> {
+                            if (reader.peek() == JsonToken.NULL) {
+                                reader.nextNull();
+                            } else {
+                                cursor = reader.nextString();
+                            }
+                        }
+                        default -> reader.skipValue();
+                    }
+                }
+            }
+        } catch (IllegalStateException e) {
+            // JsonReader reports unexpected token types this way.
+            throw new JSONException("Unexpected JSON structure", e);
+        } catch (MalformedJsonException e) {
+            throw new JSONException("Malformed JSON", e);
+        } finally {
+            readNanos += System.nanoTime() - start;
+        }
+
+        if (listener != null && !notified) {
+            notified = true;
+            listener.onFinished(count, readNanos, cursor);
+        }
+
+        return null;
+    }
+
+    /**
+     * Get the cursor for the next page of results. This may return null before the page has been
+     * fully read if the server sends the cursor after the objects.
+     */
+    @Nullable
+    String getCursor() {
+        return cursor;
+    }
+
+    /**
+     * Whether the entire page has been read. Once true, {@link #getCursor()} is final.
+     */
+    boolean isFinished() {
+        return finished;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2024 Andrew Gunnerson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.voicemail.impl.mstore;
+
+import android.annotation.NonNull;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Predicate;
+
+/**
+ * In-memory cache of parsed responses with per-lookup TTLs and optional stale-while-revalidate.
+ * Cached values are shared between callers, so they must not be modified.
+ *
+ * Invalidation takes effect for requests that are already in flight too. A response that was
+ * requested before an invalidation is returned to its caller, but is not stored, since it may
+ * predate the change that caused the invalidation. Loaders that share in-flight requests between
+ * callers must include {@link #getGeneration()} in the sharing key, so that callers arriving after
+ * an invalidation do not join a request from before it.
+ */
+class ResponseCache<V> {
+    private record Entry<V>(@NonNull V value, long fetchedNanos) {}
+
+    private final @NonNull ConcurrentHashMap<String, Entry<V>> entries = new ConcurrentHashMap<>();
+
+    /** Keys with a background refresh in progress. */
+    private final @NonNull Set<String> refreshing = ConcurrentHashMap.newKeySet();
+
+    /** Incremented on every invalidation. Guarded by {@code this}. */
+    private long generation = 0;
+
+    /**
+     * Get the cached value for a key or load it.
+     *
+     * @param ttlNanos Age after which an entry is no longer fresh.
+     * @param maxStaleNanos Time after expiry during which the stale entry is returned while it is
+     *                      being refreshed on {@code executor}.
+     * @param loader Called to load the value if there is no usable entry.
+     */
+    @NonNull
+    V get(@NonNull String key, long ttlNanos, long maxStaleNanos,
+            @NonNull Executor executor, @NonNull SingleFlight.Call<V> loader)
+            throws MStoreException, IOException {
+        final var entry = entries.get(key);
+
+        if (entry != null) {
+            final var age = System.nanoTime() - entry.fetchedNanos();
+
+            if (age < ttlNanos) {
+                return entry.value();
+            } else if (age - ttlNanos < maxStaleNanos) {
+                refreshInBackground(key, executor, loader);
+                return entry.value();
+            }
+        }
+
+        return load(key, loader);
+    }
+
+    private @NonNull V load(@NonNull String key, @NonNull SingleFlight.Call<V> loader)
+            throws MStoreException, IOException {
+        final long startGeneration;
+        synchronized (this) {
+            startGeneration = generation;
+        }
+
+        // The entry's age is measured from when the request was sent.
+        final var start = System.nanoTime();
+        final var value = loader.call();
+
+        synchronized (this) {
+            if (generation == startGeneration) {
+                entries.put(key, new Entry<>(value, start));
+            }
+        }
+
+        return value;
+    }
+
+    private void refreshInBackground(@NonNull String key, @NonNull Executor executor,
+            @NonNull SingleFlight.Call<V> loader) {
+        if (!refreshing.add(key)) {
+            return;
+        }
+
+        try {
+            executor.execute(() -> {
+                try {
+                    load(key, loader);
+                } catch (MStoreException | IOException | RuntimeException e) {
+                    // The stale entry keeps being used until it is too old. The next lookup after
+                    // that reports the error to the caller.
+                } finally {
+                    refreshing.remove(key);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            refreshing.remove(key);
+        }
+    }
+
+    /**
+     * Get the number of invalidations so far.
+     */
+    synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Remove the entries whose keys match.
+     */
+    synchronized void invalidateIf(@NonNull Predicate<String> predicate) {
+        generation++;
+        entries.keySet().removeIf(predicate);
+    }
+
+    /**
+     * Remove all entries.
+     */
+    synchronized void clear() {
+        generation++;
+        entries.clear();
+    }
+}
@@ -0,0 +1,289 @@
+/*
+ * Copyright 2024 Andrew Gunnerson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.voicemail.impl.mstore;
+
+import android.annotation.NonNull;
+import android.annotation.Nullable;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.util.Objects;
+import java.util.regex.Pattern;
+
+/**
+ * A payload download that survives interruptions.
+ *
+ * The payload is stored exactly as sent by the server (usually base64 encoded) in a {@code .part}
+ * file next to the output file. The partial files are named after both the output file and the
+ * object ID, so different objects downloaded to the same path never share partial data. A
+ * {@code .part.json} sidecar records which object the partial data belongs to, the transfer
+ * encoding, and the validator (ETag or Last-Modified) needed to safely resume. When the download is
+ * retried, only the remaining bytes are requested with a Range header. If the server ignores the
+ * range or the payload changed, the download restarts from the beginning.
+ * Once everything has been received, the payload is decoded into the output file and its size is
+ * checked against {@link MStoreObject#payloadSize}.
+ */
+class ResumableDownload {
+    private static final Pattern RE_CONTENT_RANGE = Pattern.compile(
+            "^bytes (\\d+)-\\d+/(\\d+|\\*)$");
+
+    private static final Pattern RE_UNSAFE_KEY_CHARS = Pattern.compile("[^A-Za-z0-9_-]");
+
+    private static final String KEY_OBJECT_PATH = "objectPath";
+    private static final String KEY_PAYLOAD_PATH = "payloadPath";
+    private static final String KEY_PAYLOAD_SIZE = "payloadSize";
+    private static final String KEY_ENCODING = "encoding";
+    private static final String KEY_VALIDATOR = "validator";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final @NonNull MStoreClient client;
+    private final @NonNull MStoreObject object;
+    private final @NonNull File output;
+    private final @NonNull File partFile;
+    private final @NonNull File stateFile;
+    private final @NonNull File tempFile;
+
+    // Loaded from or saved to the state file.
+    private @Nullable String encoding;
+    private @Nullable String validator;
+
+    ResumableDownload(@NonNull MStoreClient client, @NonNull MStoreObject object,
+            @NonNull File output) {
+        this.client = client;
+        this.object = object;
+        this.output = output;
+
+        final var prefix = output.getPath() + "." + getPartialKey(object);
+        this.partFile = new File(prefix + ".part");
+        this.stateFile = new File(prefix + ".part.json");
+        this.tempFile = new File(prefix + ".tmp");
+    }
+
+    /**
+     * Get a filename-safe key that identifies the object.
+     */
+    private static @NonNull String getPartialKey(@NonNull MStoreObject object) {
+        if (object.objectPath != null) {
+            final var id = object.objectPath.substring(object.objectPath.lastIndexOf('/') + 1);
+            if (!id.isEmpty()) {
+                return RE_UNSAFE_KEY_CHARS.matcher(id).replaceAll("_");
+            }
+        }
+
+        return Integer.toHexString(Objects.requireNonNull(object.payloadPath).hashCode());
+    }
+
+    /**
+     * Load the state of an earlier attempt.
+     *
+     * @return Number of raw bytes that can be resumed from.
+     */
+    private long loadState() throws IOException {
+        final String data;
+        try {
+            data = Files.readString(stateFile.toPath(), StandardCharsets.UTF_8);
+        } catch (NoSuchFileException e) {
+            return 0;
+        }
+
+        try {
+            final var state = new JSONObject(data);
+
+            if (!Objects.equals(object.objectPath, state.optString(KEY_OBJECT_PATH, null))
+                    || !Objects.equals(object.payloadPath, state.getString(KEY_PAYLOAD_PATH))
+                    || object.payloadSize != state.getLong(KEY_PAYLOAD_SIZE)) {
+                // Leftovers from a different object.
+                return 0;
+            }
+
+            encoding = state.optString(KEY_ENCODING, null);
+            validator = state.optString(KEY_VALIDATOR, null);
+        } catch (JSONException e) {
+            return 0;
+        }
+
+        return partFile.length();
+    }
+
+    private void saveState() throws IOException {
+        final String data;
+        try {
+            data = new JSONObject()
+                    .putOpt(KEY_OBJECT_PATH, object.objectPath)
+                    .put(KEY_PAYLOAD_PATH, object.payloadPath)
+                    .put(KEY_PAYLOAD_SIZE, object.payloadSize)
+                    .putOpt(KEY_ENCODING, encoding)
+                    .putOpt(KEY_VALIDATOR, validator)
+                    .toString();
+        } catch (JSONException e) {
+            throw new IOException("Failed to serialize download state", e);
+        }
+
+        final var stateTempFile = new File(stateFile.getPath() + ".tmp");
+        Files.writeString(stateTempFile.toPath(), data, StandardCharsets.UTF_8);
+        Files.move(stateTempFile.toPath(), stateFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void deletePartial() throws IOException {
+        Files.deleteIfExists(stateFile.toPath());
+        Files.deleteIfExists(partFile.toPath());
+    }
+
+    /**
+     * Get the offset that a 206 response starts at or -1 if the Content-Range header is missing or
+     * invalid.
+     */
+    private static long getRangeStart(@NonNull MStoreResponse response) throws IOException {
+        final var contentRange = response.getHeaderField("Content-Range");
+        if (contentRange == null) {
+            return -1;
+        }
+
+        final var matcher = RE_CONTENT_RANGE.matcher(contentRange.trim());
+        if (!matcher.matches()) {
+            return -1;
+        }
+
+        try {
+            return Long.parseLong(matcher.group(1));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Send the request for the remaining raw bytes.
+     *
+     * @return A 206 response starting at the requested offset or a 200 response with the entire
+     *         payload.
+     */
+    private @NonNull MStoreResponse request(long offset) throws MStoreException, IOException {
+        var response = client.openRawPayload(object, offset, validator);
+
+        if (offset > 0) {
+            final var code = response.getResponseCode();
+            final var restart = code == 416 || (code == 206 && getRangeStart(response) != offset);
+
+            if (restart) {
+                // The partial data can't be used.
+                response.close();
+                deletePartial();
+                response = client.openRawPayload(object, 0, null);
+            }
+        }
+
+        MStoreClient.throwAndDisconnectOnBadStatus(response);
+        return response;
+    }
+
+    /**
+     * Decode the complete raw payload into a file.
+     *
+     * @return The size of the decoded payload.
+     */
+    private long decode(@NonNull File file) throws IOException {
+        try (var input = new FileInputStream(partFile);
+                var fileOutput = new FileOutputStream(file);
+                var channel = fileOutput.getChannel()) {
+            if ("base64".equals(encoding)) {
+                return new Base64BulkDecoder().decode(input, channel);
+            }
+
+            final var inputChannel = input.getChannel();
+            final var size = inputChannel.size();
+            var position = 0L;
+
+            while (position < size) {
+                position += inputChannel.transferTo(position, size - position, channel);
+            }
+
+            return size;
+        }
+    }
+
+    /**
+     * Run the download. If this throws, the partial data is kept for the next attempt unless it is
+     * known to be unusable.
+     *
+     * @return The size of the decoded payload.
+     */
+    long run() throws MStoreException, IOException {
+        final var offset = loadState();
+
+        try (var response = request(offset)) {
+            final var append = response.getResponseCode() == 206;
+
+            if (!append) {
+                validator = response.getHeaderField("ETag");
+                if (validator == null) {
+                    validator = response.getHeaderField("Last-Modified");
+                }
+                encoding = response.getHeaderField("Content-Transfer-Encoding");
+
+                // The state must be written before any data so that a partial file is never
+                // resumed with the wrong encoding.
+                Files.deleteIfExists(partFile.toPath());
+                saveState();
+            }
+
+            try (var input = response.getBody();
+                    var partOutput = new FileOutputStream(partFile, append)) {
+                final var buf = new byte[BUFFER_SIZE];
+                int n;
+
+                while ((n = input.read(buf)) > 0) {
+                    partOutput.write(buf, 0, n);
+                }
+
+                partOutput.getFD().sync();
+            }
+        }
+
+        final long size;
+
+        try {
+            size = decode(tempFile);
+
+            if (size != object.payloadSize) {
+                // Resuming would only reproduce the same bad data.
+                deletePartial();
+                throw new MStoreException("Payload size mismatch for " + object.payloadPath
+                        + ": expected " + object.payloadSize + ", but got " + size);
+            }
+
+            Files.move(tempFile.toPath(), output.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tempFile.toPath());
+        }
+
+        deletePartial();
+
+        return size;
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2024 Andrew Gunnerson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.voicemail.impl.mstore;
+
+import android.annotation.NonNull;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Coalesces concurrent calls with the same key. While a call for a key is in progress, further
+ * calls for the same key wait for it and receive its result instead of doing the work again. Once
+ * the call completes, the next call for that key starts over. Nothing is cached.
+ *
+ * This is meant for idempotent reads only, where every caller would have received the same result
+ * anyway. The result is shared between all callers, so it should be immutable.
+ *
+ * @param <K> Key type.
+ * @param <V> Result type.
+ */
+public class SingleFlight<K, V> {
+    /**
+     * The work to perform for a key.
+     */
+    public interface Call<V> {
+        @NonNull
+        V call() throws MStoreException, IOException;
+    }
+
+    private final @NonNull ConcurrentHashMap<K, CompletableFuture<V>> calls =
+            new ConcurrentHashMap<>();
+
+    /**
+     * Run {@code call}, unless a call for the same key is already in progress, in which case, wait
+     * for that call's result instead.
+     *
+     * If the shared call fails, the callers that were waiting for it receive an exception of the
+     * same kind with the original exception as the cause.
+     *
+     * @throws InterruptedIOException if the thread is interrupted while waiting for another call
+     */
+    public @NonNull V run(@NonNull K key, @NonNull Call<V> call)
+            throws MStoreException, IOException {
+        final var future = new CompletableFuture<V>();
+        final var existing = calls.putIfAbsent(key, future);
+
+        if (existing != null) {
+            return await(existing);
+        }
+
+        try {
+            final var result = call.call();
+            future.complete(result);
+            return result;
+        } catch (MStoreException | IOException | RuntimeException | Error e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            calls.remove(key, future);
+        }
+    }
+
+    private static <V> @NonNull V await(@NonNull CompletableFuture<V> future)
+            throws MStoreException, IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            final var ioe = new InterruptedIOException("Interrupted while waiting for shared call");
+            ioe.initCause(e);
+            throw ioe;
+        } catch (ExecutionException e) {
+            // Wrap the exception so that the stack trace shows where this caller was waiting.
+            final var cause = e.getCause();
+            final var message = "Shared call failed: " + cause.getMessage();
+            if (cause instanceof MStoreException) {
+                throw new MStoreException(message, cause);
+            } else if (cause instanceof IOException) {
+                throw new IOException(message, cause);
+            } else if (cause instanceof Error error) {
+                throw error;
+            } else {
+                throw new IllegalStateException(message, cause);
+            }
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2024 Andrew Gunnerson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.voicemail.impl.mstore;
+
+import android.annotation.NonNull;
+import android.annotation.Nullable;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Response wrapper that measures the time spent reading the body and reports the request's
+ * timings to the listener when the response is closed.
+ */
+class TimedResponse implements MStoreResponse {
+    private final @NonNull MStoreResponse response;
+    private final @NonNull MStoreRequestTimings timings;
+    private final long startNanos;
+    private final @Nullable MStoreTimingListener listener;
+    private final @NonNull AtomicBoolean closed = new AtomicBoolean(false);
+    private @Nullable InputStream body;
+
+    /**
+     * @param startNanos {@link System#nanoTime()} at the start of the request.
+     */
+    TimedResponse(@NonNull MStoreResponse response, @NonNull MStoreRequestTimings timings,
+            long startNanos, @Nullable MStoreTimingListener listener) {
+        this.response = response;
+        this.timings = timings;
+        this.startNanos = startNanos;
+        this.listener = listener;
+    }
+
+    /**
+     * The timings for this request. Callers that parse the body add the parse time.
+     */
+    @NonNull
+    MStoreRequestTimings getTimings() {
+        return timings;
+    }
+
+    @Override
+    public @NonNull URL getUrl() {
+        return response.getUrl();
+    }
+
+    @Override
+    public @NonNull String getRequestMethod() {
+        return response.getRequestMethod();
+    }
+
+    @Override
+    public int getResponseCode() throws IOException {
+        return response.getResponseCode();
+    }
+
+    @Override
+    public @Nullable String getResponseMessage() throws IOException {
+        return response.getResponseMessage();
+    }
+
+    @Override
+    public @Nullable String getHeaderField(@NonNull String name) throws IOException {
+        return response.getHeaderField(name);
+    }
+
+    @Override
+    public synchronized @NonNull InputStream getBody() throws IOException {
+        if (body == null) {
+            body = new FilterInputStream(response.getBody()) {
+                @Override
+                public int read() throws IOException {
+                    final var start = System.nanoTime();
+                    final var c = super.read();
+                    timings.bodyNanos += System.nanoTime() - start;
+                    if (c != -1) {
+                        timings.bodyBytes++;
+                    }
+                    return c;
+                }
+
+                @Override
+                public int read(@NonNull byte[] b, int off, int len) throws IOException {
+                    final var start = System.nanoTime();
+                    final var n = super.read(b, off, len);
+                    timings.bodyNanos += System.nanoTime() - start;
+                    if (n > 0) {
+                        timings.bodyBytes += n;
+                    }
+                    return n;
+                }
+
+                @Override
+                public void close() throws IOException {
+                    TimedResponse.this.close();
+                }
+            };
+        }
+
+        return body;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            response.close();
+        } finally {
+            timings.totalNanos = System.nanoTime() - startNanos;
+            if (listener != null) {
+                listener.onRequestFinished(timings);
+            }
+        }
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright 2024 Andrew Gunnerson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.voicemail.impl.mstore;
+
+import android.annotation.NonNull;
+
+/**
+ * Wraps an {@link MStoreException} with an unchecked exception. This is the counterpart of
+ * {@link java.io.UncheckedIOException} for APIs that cannot throw checked exceptions, like
+ * {@link java.util.Iterator}.
+ */
+public class UncheckedMStoreException extends RuntimeException {
+    public UncheckedMStoreException(@NonNull MStoreException cause) {
+        super(cause);
+    }
+
+    public UncheckedMStoreException(String message, @NonNull MStoreException cause) {
+        super(message, cause);
+    }
+
+    @Override
+    public synchronized @NonNull MStoreException getCause() {
+        return (MStoreException) super.getCause();
+    }
+}